@@ -92,6 +92,7 @@ public class Ekit extends JFrame implements WindowListener {
 	/* WindowListener methods */
 	public void windowClosing(WindowEvent we)
 	{
+		kEdit.dispose();
 		this.dispose();
 		System.exit(0);
 	}
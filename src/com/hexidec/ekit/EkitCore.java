@@ -2009,6 +2009,39 @@ public class EkitCore extends AdvancedContentPane implements ActionListener, Key
 	 */
 	public void checkDocumentSpelling(Document doc) {}
 
+	/**
+	 * Empty release method, overwritten by spell checker extension class to
+	 * give back its dictionary. Call when the editor is no longer used.
+	 */
+	public void dispose() {}
+
+	/**
+	 * Empty word completion method, overwritten by spell checker extension class
+	 */
+	public java.util.List<String> getCompletions(String prefix, int limit) {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Returns the completions of the word the caret is at the end of, or an empty list
+	 */
+	public java.util.List<String> getCompletionsAtCaret(int limit) {
+		int caret = jtpMain.getCaretPosition();
+		int start = caret;
+		try {
+			while (start > 0 && Character.isLetter(htmlDoc.getText(start - 1, 1).charAt(0))) {
+				start--;
+			}
+			if (start == caret) {
+				return Collections.emptyList();
+			}
+			return getCompletions(htmlDoc.getText(start, caret - start), limit);
+		} catch(BadLocationException ble) {
+			logException("BadLocationException in getCompletionsAtCaret method", ble);
+			return Collections.emptyList();
+		}
+	}
+
 	/**
 	 * Method for saving text as a complete HTML document
 	 */
@@ -21,7 +21,16 @@ Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
 
 package com.hexidec.ekit;
 
+import java.awt.Cursor;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
 import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import javax.swing.SwingWorker;
 import javax.swing.text.Document;
 import javax.swing.text.StyledDocument;
 
@@ -47,7 +56,18 @@ public class EkitCoreSpell extends EkitCore implements SpellCheckListener
 	/* Spell Checker Settings */
 	private static String dictFile;
 	private SpellChecker spellCheck = null;
+	private SpellDictionary dictionary = null;
 	private JSpellDialog spellDialog;
+	/* Underlines misspelt words while typing, null while off or loading */
+	private AutoSpellChecker autoSpellChecker = null;
+	private boolean autoSpellCheck = true;
+	/* Loads the dictionary off the event thread, spellCheck is set once it is done */
+	private SwingWorker<SpellDictionary, Object> dictionaryLoader;
+	/* Document whose check was requested before the dictionary was ready */
+	private Document pendingSpellCheck = null;
+	/* The document check running off the event thread, or null */
+	private SwingWorker spellCheckTask = null;
+	private boolean disposed = false;
 
 	/** Master Constructor
 	  * @param sDocument         [String]  A text or HTML document to load in the editor upon startup.
@@ -71,18 +91,25 @@ public class EkitCoreSpell extends EkitCore implements SpellCheckListener
 	{
 		super(isParentApplet, sDocument, sStyleSheet, sRawDocument, sdocSource, urlStyleSheet, includeToolBar, showViewSource, showMenuIcons, editModeExclusive, sLanguage, sCountry, base64, debugMode, true, multiBar, toolbarSeq, enterBreak);
 
-		/* Create spell checker */
-		try
+		/* Create spell checker, the dictionary is loaded in the background so the editor can show at once */
+		dictFile = Translatrix.getTranslationString("DictionaryFile");
+		final String dictionaryName = dictFile;
+		dictionaryLoader = new SwingWorker<SpellDictionary, Object>()
 		{
-			dictFile = Translatrix.getTranslationString("DictionaryFile");
-			SpellDictionary dictionary = new SpellDictionary(dictFile); // uses my custom loader in SpellDictionary
-			spellCheck = new SpellChecker(dictionary);
-			spellCheck.addSpellCheckListener(this);
-		}
-		catch(Exception e)
-		{
-			e.printStackTrace();
-		}
+			protected SpellDictionary doInBackground() throws Exception
+			{
+				SpellDictionary loaded = DictionaryRegistry.acquire(dictionaryName); // shared by every editor using the same dictionary
+				loaded.prepareCompletions(); // so the first keystroke does not build the index
+				loaded.setSuggestionCacheFile(new File(System.getProperty("user.home"), ".ekit-" + dictionaryName + SpellDictionary.SUGGESTION_CACHE_SUFFIX));
+				return loaded;
+			}
+
+			protected void done()
+			{
+				dictionaryLoaded();
+			}
+		};
+		dictionaryLoader.execute();
 		spellDialog = new JSpellDialog(this.getOwner(), Translatrix.getTranslationString("ToolSpellcheckDialog"), true);
 	}
 
@@ -122,10 +149,155 @@ public class EkitCoreSpell extends EkitCore implements SpellCheckListener
 		spellDialog.show(event);
 	}
 
+	/* Called on the event thread once the dictionary loader has finished */
+	private void dictionaryLoaded()
+	{
+		try
+		{
+			if(disposed)
+			{
+				dictionaryLoader.get().dispose();
+				return;
+			}
+			dictionary = dictionaryLoader.get();
+			spellCheck = new SpellChecker(dictionary);
+			spellCheck.addSpellCheckListener(this);
+			if(autoSpellCheck)
+			{
+				autoSpellChecker = new AutoSpellChecker(getTextPane(), dictionary, spellCheck);
+			}
+		}
+		catch(InterruptedException ie)
+		{
+			ie.printStackTrace();
+		}
+		catch(ExecutionException ee)
+		{
+			ee.getCause().printStackTrace();
+		}
+		if(pendingSpellCheck != null)
+		{
+			Document doc = pendingSpellCheck;
+			pendingSpellCheck = null;
+			getTextPane().setCursor(new Cursor(Cursor.TEXT_CURSOR));
+			if(spellCheck != null)
+			{
+				checkDocumentSpelling(doc);
+			}
+		}
+	}
+
+	/** Gives back the shared dictionary, call when the editor is no longer used */
+	public void dispose()
+	{
+		disposed = true;
+		pendingSpellCheck = null;
+		if(spellCheckTask != null)
+		{
+			spellCheckTask.cancel(true);
+			spellCheckTask = null;
+		}
+		if(autoSpellChecker != null)
+		{
+			autoSpellChecker.dispose();
+			autoSpellChecker = null;
+		}
+		if(spellCheck != null)
+		{
+			spellCheck.dispose();
+			spellCheck = null;
+		}
+		dictionary = null;
+	}
+
+	/** Returns true once the dictionary has been loaded and spelling can be checked */
+	public boolean isSpellCheckerReady()
+	{
+		return spellCheck != null;
+	}
+
+	/** Turns spell checking as you type on or off, it starts once the dictionary is loaded */
+	public void setAutoSpellCheck(boolean on)
+	{
+		autoSpellCheck = on;
+		if(!on && autoSpellChecker != null)
+		{
+			autoSpellChecker.dispose();
+			autoSpellChecker = null;
+		}
+		else if(on && autoSpellChecker == null && dictionary != null)
+		{
+			autoSpellChecker = new AutoSpellChecker(getTextPane(), dictionary, spellCheck);
+		}
+	}
+
+	public boolean isAutoSpellCheck()
+	{
+		return autoSpellCheck;
+	}
+
+	/* Word completion method (overrides empty method in basic core), empty until the dictionary is loaded */
+	@SuppressWarnings("unchecked")
+	public List<String> getCompletions(String prefix, int limit)
+	{
+		if(dictionary == null)
+		{
+			return Collections.emptyList();
+		}
+		return dictionary.completions(prefix, limit);
+	}
+
 	/* Spell checking method (overrides empty method in basic core) */
 	public void checkDocumentSpelling(Document doc)
 	{
-		spellCheck.checkSpelling(new DocumentWordTokenizer(doc));
+		if(spellCheck == null)
+		{
+			/* Still loading: queue the request and show it is being worked on */
+			if(!dictionaryLoader.isDone())
+			{
+				pendingSpellCheck = doc;
+				getTextPane().setCursor(new Cursor(Cursor.WAIT_CURSOR));
+			}
+			return;
+		}
+		if(spellCheckTask != null)
+		{
+			return; // a check is still running
+		}
+		/* Errors are found in parallel off the event thread, the first is shown at once */
+		final SwingWorker task = spellCheck.checkSpellingInBackground(doc);
+		task.addPropertyChangeListener(new PropertyChangeListener()
+		{
+			public void propertyChange(PropertyChangeEvent evt)
+			{
+				if(task.isDone() && spellCheckTask == task)
+				{
+					spellCheckTask = null;
+					try
+					{
+						task.get();
+					}
+					catch(CancellationException ce)
+					{
+					}
+					catch(InterruptedException ie)
+					{
+						ie.printStackTrace();
+					}
+					catch(ExecutionException ee)
+					{
+						ee.getCause().printStackTrace();
+					}
+					if(autoSpellChecker != null)
+					{
+						/* Words may have been added to the dictionary or ignored */
+						autoSpellChecker.recheck();
+					}
+				}
+			}
+		});
+		spellCheckTask = task;
+		task.execute();
 	}
 
 }
@@ -0,0 +1,103 @@
+package com.swabunga.spell.engine;
+
+import java.util.LinkedList;
+
+/**
+ * The words added to a SpellDictionary, kept as a few PhoneticIndex
+ * segments that are never changed once published.
+ * <p>
+ * Adding words builds a new segment from them instead of copying every
+ * word added before. A segment is merged with the one before it as long as
+ * that one is not larger, so the segments halve in size from the first to
+ * the last: there are at most log n of them and every word is copied
+ * about log n times in all.
+ * </p>
+ */
+final class AddedWords
+{
+
+	/** The segments, the oldest and largest first*/
+	private final PhoneticIndex[] segments;
+	private final int size;
+
+	private AddedWords(PhoneticIndex[] segments) {
+		int n = 0;
+		for (int i = 0; i < segments.length; i++) {
+			segments[i].prepare();
+			n += segments[i].size();
+		}
+		this.segments = segments;
+		this.size = n;
+	}
+
+	/**
+	 * Returns the added words of one segment, which must not be changed
+	 * afterwards.
+	 */
+	static AddedWords of(PhoneticIndex segment) {
+		return new AddedWords(new PhoneticIndex[] { segment });
+	}
+
+	/**
+	 * Returns these words and those of the segment, which must not be
+	 * changed afterwards. This instance is left as it is.
+	 */
+	AddedWords plus(PhoneticIndex segment) {
+		int n = segments.length;
+		while (n > 0 && segments[n - 1].size() <= segment.size()) {
+			PhoneticIndex merged = new PhoneticIndex(segments[n - 1]);
+			merged.addAll(segment);
+			segment = merged;
+			n--;
+		}
+		PhoneticIndex[] result = new PhoneticIndex[n + 1];
+		System.arraycopy(segments, 0, result, 0, n);
+		result[n] = segment;
+		return new AddedWords(result);
+	}
+
+	/** Returns the number of segments*/
+	int segmentCount() {
+		return segments.length;
+	}
+
+	/** Returns a segment, to be read only*/
+	PhoneticIndex segment(int i) {
+		return segments[i];
+	}
+
+	/**
+	 * Returns true if a segment holds the word. When lowerCase is set the
+	 * word is looked up as if it had been converted to lower case first.
+	 */
+	boolean contains(CharSequence word, boolean lowerCase) {
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i].contains(word, lowerCase))
+				return true;
+		}
+		return false;
+	}
+
+	/** Returns the number of words in all the segments*/
+	int size() {
+		return size;
+	}
+
+	/** Materializes the word with the given id, counted across the segments in order*/
+	String word(int id) {
+		for (int i = 0; i < segments.length; i++) {
+			if (id < segments[i].size())
+				return segments[i].word(id);
+			id -= segments[i].size();
+		}
+		throw new IndexOutOfBoundsException();
+	}
+
+	/** Returns a new list holding the words of the code*/
+	LinkedList words(CharSequence code) {
+		LinkedList result = segments[0].words(code);
+		for (int i = 1; i < segments.length; i++)
+			result.addAll(segments[i].words(code));
+		return result;
+	}
+}
@@ -0,0 +1,142 @@
+package com.swabunga.spell.engine;
+
+import java.util.*;
+
+/**
+ * A BK-tree over the words of a WordIndex, with EditDistance as the metric.
+ * <p>
+ * Every node is a word id and every child hangs off its parent under the
+ * distance between the two words. A query for all words closer than a
+ * radius only has to descend into the children whose edge lies within the
+ * radius of the query's distance to the node (triangle inequality), so
+ * suggestions no longer depend on phonetic code collisions.
+ * </p>
+ * <p>
+ * The tree is kept as three int arrays indexed by word id: first child,
+ * next sibling and the distance to the parent. It covers the words present
+ * when it was built and is not changed afterwards, so any number of threads
+ * may search it at once.
+ * </p>
+ * <p>
+ * The weighted EditDistance with transpositions is not a strict metric in
+ * a few corner cases, so the pruning may very rarely miss a candidate the
+ * phonetic engine would have found.
+ * </p>
+ */
+final class BKTree
+{
+
+	private final WordIndex words;
+	private final int[] firstChild;
+	private final int[] nextSibling;
+	private final int[] edge;
+	/** The root word id, -1 while the tree is empty*/
+	private int root = -1;
+
+	/**
+	 * Builds the tree over all the words currently in the WordIndex.
+	 */
+	BKTree(WordIndex words) {
+		this.words = words;
+		int count = words.size();
+		firstChild = new int[count];
+		nextSibling = new int[count];
+		edge = new int[count];
+		for (int id = 0; id < count; id++)
+			insert(id);
+	}
+
+	/** Returns the WordIndex the tree was built over*/
+	WordIndex getWords() {
+		return words;
+	}
+
+	private void insert(int id) {
+		firstChild[id] = -1;
+		nextSibling[id] = -1;
+		if (root == -1) {
+			root = id;
+			return;
+		}
+		String word = words.word(id);
+		int node = root;
+		while (true) {
+			int distance = EditDistance.getDistance(word, words.word(node));
+			if (distance == 0)
+				return; // duplicate line in the word list
+			int child = firstChild[node];
+			while (child != -1 && edge[child] != distance)
+				child = nextSibling[child];
+			if (child == -1) {
+				edge[id] = distance;
+				nextSibling[id] = firstChild[node];
+				firstChild[node] = id;
+				return;
+			}
+			node = child;
+		}
+	}
+
+	/**
+	 * Adds a Word for every word whose distance to the given word is below
+	 * the threshold to the result.
+	 */
+	void search(String word, int threshold, Collection result) {
+		if (root == -1)
+			return;
+		int radius = threshold - 1;
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = root;
+		while (top > 0) {
+			int node = stack[--top];
+			String similar = words.word(node);
+			int distance = EditDistance.getDistance(word, similar);
+			if (distance < threshold)
+				result.add(new Word(similar, distance));
+			for (int child = firstChild[node]; child != -1; child = nextSibling[child]) {
+				if (edge[child] >= distance - radius && edge[child] <= distance + radius) {
+					if (top == stack.length)
+						stack = Arrays.copyOf(stack, top * 2);
+					stack[top++] = child;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compares the suggestion latency of the phonetic engine and the BK-tree
+	 * on a list of common misspellings (or the words given as arguments).
+	 */
+	public static void main(String[] args) throws Exception {
+		String[] misspellings = args.length > 0 ? args : new String[] {
+			"recieve", "teh", "definately", "accomodate", "seperate", "occured",
+			"thier", "wierd", "untill", "goverment", "beleive", "neccessary",
+			"tommorow", "wonderfull", "misspeling", "responsability",
+			"consciencious", "embarassment", "arguement", "calender" };
+		SpellDictionary dictionary = new SpellDictionary("english");
+		int threshold = Configuration.getConfiguration().getInteger(Configuration.SPELL_THRESHOLD);
+		long start = System.nanoTime();
+		dictionary.getSuggestions("teh", threshold, SpellDictionary.SUGGEST_BKTREE, 0);
+		System.out.println("BK-tree built in " + (System.nanoTime() - start) / 1000000 + " ms");
+		int[] engines = { SpellDictionary.SUGGEST_PHONETIC, SpellDictionary.SUGGEST_BKTREE };
+		String[] names = { "phonetic", "bktree" };
+		for (int e = 0; e < engines.length; e++) {
+			long total = 0;
+			int found = 0;
+			for (int i = 0; i < misspellings.length; i++) {
+				long best = Long.MAX_VALUE;
+				List suggestions = null;
+				for (int run = 0; run < 10; run++) {
+					long t = System.nanoTime();
+					suggestions = dictionary.getSuggestions(misspellings[i], threshold, engines[e], 0);
+					best = Math.min(best, System.nanoTime() - t);
+				}
+				total += best;
+				found += suggestions.size();
+				System.out.println(names[e] + " " + misspellings[i] + " " + best / 1000 + " us " + suggestions);
+			}
+			System.out.println(names[e] + ": " + total / 1000 + " us for " + misspellings.length + " words, " + found + " suggestions");
+		}
+	}
+}
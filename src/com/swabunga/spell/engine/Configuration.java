@@ -1,10 +1,15 @@
 package com.swabunga.spell.engine;
 
-import java.util.ResourceBundle;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author aim4min
  *
+ * <p>getConfiguration() creates the configuration once and then always
+ * returns the same instance, so a setting changed through it is seen by
+ * every SpellChecker and SpellDictionary. Hot paths should read the
+ * resolved settings from getSnapshot().</p>
  */
 public abstract class Configuration {
 
@@ -23,13 +28,77 @@ public abstract class Configuration {
 	public static final String SPELL_IGNOREDIGITWORDS = "SPELL_IGNOREDIGITWORDS";
 	public static final String SPELL_IGNOREMULTIPLEWORDS = "SPELL_IGNOREMULTIPLEWORDS";
 	public static final String SPELL_IGNORESENTANCECAPITALIZATION = "SPELL_IGNORESENTANCECAPTILIZATION";
+	/** The SpellDictionary.SUGGEST_* engine used to find suggestions (phonetic, symmetric delete or BK-tree)*/
+	public static final String SPELL_SUGGESTIONENGINE = "SPELL_SUGGESTIONENGINE";
+	/** The most edits between a word and a suggestion for edit distance engines*/
+	public static final String SPELL_MAXEDITS = "SPELL_MAXEDITS";
+	/** Keep loaded word lists sorted and front coded (FrontCodedWordIndex) to save heap*/
+	public static final String SPELL_COMPACTWORDS = "SPELL_COMPACTWORDS";
+	/** The most suggestions getSuggestions returns, 0 for all of them*/
+	public static final String SPELL_MAXSUGGESTIONS = "SPELL_MAXSUGGESTIONS";
 	
 	public abstract int getInteger(String key);
 	public abstract boolean getBoolean(String key);
 	public abstract void setInteger(String key, int value);
 	public abstract void setBoolean(String key, boolean value);
-	
+
+	private volatile ConfigurationSnapshot snapshot;
+	private final List listeners = new ArrayList();
+
+	/**
+	 * Returns the settings resolved into final fields. The snapshot is
+	 * replaced, not changed, when a setting changes.
+	 */
+	public ConfigurationSnapshot getSnapshot() {
+		ConfigurationSnapshot result = snapshot;
+		if (result == null) {
+			result = new ConfigurationSnapshot(this);
+			snapshot = result;
+		}
+		return result;
+	}
+
+	public void addConfigurationListener(ConfigurationListener listener) {
+		synchronized (listeners) {
+			listeners.add(listener);
+		}
+	}
+
+	public void removeConfigurationListener(ConfigurationListener listener) {
+		synchronized (listeners) {
+			listeners.remove(listener);
+		}
+	}
+
+	/**
+	 * Publishes a new snapshot and tells the listeners about it.
+	 * Implementations call this at the end of setInteger and setBoolean.
+	 */
+	protected void fireConfigurationChanged() {
+		ConfigurationSnapshot result = new ConfigurationSnapshot(this);
+		snapshot = result;
+		Object[] targets;
+		synchronized (listeners) {
+			targets = listeners.toArray();
+		}
+		for (int i = 0; i < targets.length; i++)
+			((ConfigurationListener) targets[i]).configurationChanged(result);
+	}
+
+	/**
+	 * Returns the shared configuration: the class named by the jazzy.config
+	 * system property or a PropertyConfiguration.
+	 */
 	public static final Configuration getConfiguration() {
+		return Shared.configuration;
+	}
+
+	/** Holds the configuration returned by getConfiguration, created on first use by the class loading lock*/
+	private static final class Shared {
+		static final Configuration configuration = createConfiguration();
+	}
+
+	private static Configuration createConfiguration() {
 		Configuration result;
 		// changed, breaks applet security otherwise (Howard Kistler)
 		String config = (String)null;
@@ -0,0 +1,14 @@
+package com.swabunga.spell.engine;
+
+import java.util.EventListener;
+
+/**
+ * Notified when a setting of a Configuration changes.
+ */
+public interface ConfigurationListener extends EventListener {
+	/**
+	 * Called after the change, with the snapshot that now holds the
+	 * configuration's settings.
+	 */
+	public void configurationChanged(ConfigurationSnapshot snapshot);
+}
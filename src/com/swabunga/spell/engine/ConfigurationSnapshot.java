@@ -0,0 +1,77 @@
+package com.swabunga.spell.engine;
+
+/**
+ * The settings of a Configuration resolved once into final fields.
+ * <p>
+ * Hot paths (edit distance, checking every word) read these fields
+ * instead of looking each key up and parsing it every time. A snapshot
+ * never changes: Configuration.getSnapshot() returns a new one after every
+ * setInteger/setBoolean and ConfigurationListeners are told about it.
+ * </p>
+ */
+public final class ConfigurationSnapshot {
+
+	public final int editDel1;
+	public final int editDel2;
+	public final int editSwap;
+	public final int editSub;
+	public final int editSimilar;
+	public final int editMin;
+	public final int editMax;
+
+	public final int threshold;
+	public final boolean ignoreUpperCase;
+	public final boolean ignoreMixedCase;
+	public final boolean ignoreInternetAddresses;
+	public final boolean ignoreDigitWords;
+	public final boolean ignoreMultipleWords;
+	public final boolean ignoreSentenceCapitalization;
+	public final int suggestionEngine;
+	public final int maxEdits;
+	public final boolean compactWords;
+	public final int maxSuggestions;
+
+	/**
+	 * Reads every key from the configuration. A Configuration written
+	 * before the suggestion engine, edit count, compact words and
+	 * suggestion count keys existed may not know them, so those fall back
+	 * to the values shipped in configuration.properties; a missing older key
+	 * fails.
+	 */
+	public ConfigurationSnapshot(Configuration config) {
+		editDel1 = config.getInteger(Configuration.EDIT_DEL1);
+		editDel2 = config.getInteger(Configuration.EDIT_DEL2);
+		editSwap = config.getInteger(Configuration.EDIT_SWAP);
+		editSub = config.getInteger(Configuration.EDIT_SUB);
+		editSimilar = config.getInteger(Configuration.EDIT_SIMILAR);
+		editMin = config.getInteger(Configuration.EDIT_MIN);
+		editMax = config.getInteger(Configuration.EDIT_MAX);
+		threshold = config.getInteger(Configuration.SPELL_THRESHOLD);
+		ignoreUpperCase = config.getBoolean(Configuration.SPELL_IGNOREUPPERCASE);
+		ignoreMixedCase = config.getBoolean(Configuration.SPELL_IGNOREMIXEDCASE);
+		ignoreInternetAddresses = config.getBoolean(Configuration.SPELL_IGNOREINTERNETADDRESSES);
+		ignoreDigitWords = config.getBoolean(Configuration.SPELL_IGNOREDIGITWORDS);
+		ignoreMultipleWords = config.getBoolean(Configuration.SPELL_IGNOREMULTIPLEWORDS);
+		ignoreSentenceCapitalization = config.getBoolean(Configuration.SPELL_IGNORESENTANCECAPITALIZATION);
+		suggestionEngine = getInteger(config, Configuration.SPELL_SUGGESTIONENGINE, SpellDictionary.SUGGEST_PHONETIC);
+		maxEdits = getInteger(config, Configuration.SPELL_MAXEDITS, 2);
+		compactWords = getBoolean(config, Configuration.SPELL_COMPACTWORDS, false);
+		maxSuggestions = getInteger(config, Configuration.SPELL_MAXSUGGESTIONS, 10);
+	}
+
+	private static int getInteger(Configuration config, String key, int defaultValue) {
+		try {
+			return config.getInteger(key);
+		} catch (RuntimeException e) {
+			return defaultValue;
+		}
+	}
+
+	private static boolean getBoolean(Configuration config, String key, boolean defaultValue) {
+		try {
+			return config.getBoolean(key);
+		} catch (RuntimeException e) {
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package com.swabunga.spell.engine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Compiles a word list into the binary dictionary format that SpellDictionary
+ * can memory map, so that the phonetic coding is paid once, offline, instead
+ * of at every editor startup.
+ * <p>
+ * Usage: <code>java com.swabunga.spell.engine.DictionaryCompiler wordlist
+ * output [phonetic]</code>. Without a phonetic file the words are coded with
+ * DoubleMeta, otherwise with a GenericTransformator built from the aspell
+ * phonetic file.
+ * </p>
+ * <p>
+ * The file is big endian and every section is 4 byte aligned:
+ * <pre>
+ *   int    MAGIC, VERSION
+ *   int    length of the transformator name, followed by its chars (padded)
+ *   long   hash of the GenericTransformator rules, 0 for other transformators
+ *   int    codeCount, wordCount, tableSize
+ *   int[]  codeTable[tableSize]   open-addressing table of code id + 1
+ *   int[]  codeHash[codeCount]
+ *   int[]  codeStart[codeCount + 1]
+ *   int[]  bucketStart[codeCount + 1]
+ *   int[]  wordStart[wordCount + 1]
+ *   int    wordTableSize
+ *   int[]  wordTable[wordTableSize]  open-addressing table of word id + 1
+ *   int[]  bloom[wordTableSize / 8]  Bloom filter in front of wordTable
+ *   char[] code chars (padded), word chars
+ * </pre>
+ * Words are stored bucket by bucket, so the bucket of code c is the range
+ * of word ids bucketStart[c] .. bucketStart[c + 1].
+ * </p>
+ */
+public class DictionaryCompiler
+{
+
+	/** The first int of every compiled dictionary ("JZDC")*/
+	public static final int MAGIC = 0x4A5A4443;
+	/** The layout version written by this compiler*/
+	public static final int VERSION = 3;
+
+	/**
+	 * Reads the word list, one word per line, codes every word with the
+	 * transformator and writes the compiled dictionary to out.
+	 */
+	public static void compile(Reader wordList, Transformator tf, OutputStream out) throws IOException {
+		BufferedReader in = new BufferedReader(wordList);
+		PhoneticIndex index = new PhoneticIndex(16 * 1024);
+		for (String line = in.readLine(); line != null; line = in.readLine())
+			index.add(tf.transform(line), line);
+		index.trim();
+
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		writeChars(data, transformatorName(tf));
+		data.writeLong(rulesHash(tf));
+		index.write(data);
+		data.flush();
+	}
+
+	/**
+	 * Reads the header of a compiled dictionary and returns the index that
+	 * follows it. The buffer is left positioned after the header.
+	 * @throws IOException if the buffer does not hold a compiled dictionary
+	 * of this version coded with the given transformator and its rules
+	 */
+	static WordIndex open(ByteBuffer buffer, Transformator tf) throws IOException {
+		if (buffer.remaining() < 12 || buffer.getInt() != MAGIC)
+			throw new IOException("Not a compiled dictionary");
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported compiled dictionary version " + version);
+		String name = readChars(buffer);
+		if (!name.equals(transformatorName(tf)))
+			throw new IOException("Dictionary was compiled with " + name + ", not " + transformatorName(tf));
+		if (buffer.remaining() < 8 || buffer.getLong() != rulesHash(tf))
+			throw new IOException("Dictionary was compiled with other phonetic rules, compile it again");
+		try {
+			return new MappedWordIndex(buffer);
+		} catch (RuntimeException ex) {
+			throw new IOException("Corrupt compiled dictionary: " + ex);
+		}
+	}
+
+	/** The name recorded in the header to match the dictionary with its coding*/
+	private static String transformatorName(Transformator tf) {
+		return tf.getClass().getName();
+	}
+
+	/** The hash recorded in the header to match the dictionary with the phonetic rules*/
+	private static long rulesHash(Transformator tf) {
+		return tf instanceof GenericTransformator ? ((GenericTransformator) tf).getRulesHash() : 0;
+	}
+
+	private static void writeChars(DataOutputStream out, String s) throws IOException {
+		out.writeInt(s.length());
+		out.writeChars(s);
+		if ((s.length() & 1) != 0)
+			out.writeChar(0);
+	}
+
+	private static String readChars(ByteBuffer in) throws IOException {
+		int length = in.getInt();
+		if (length < 0 || length * 2 > in.remaining())
+			throw new IOException("Corrupt compiled dictionary header");
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = in.getChar();
+		if ((length & 1) != 0)
+			in.getChar();
+		return new String(chars);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: DictionaryCompiler wordlist output [phonetic]");
+			System.exit(1);
+		}
+		Transformator tf;
+		if (args.length > 2)
+			tf = new GenericTransformator(new File(args[2]));
+		else
+			tf = new DoubleMeta();
+		long start = System.currentTimeMillis();
+		OutputStream out = new FileOutputStream(args[1]);
+		try {
+			compile(new FileReader(args[0]), tf, out);
+		} finally {
+			out.close();
+		}
+		System.out.println("Compiled " + args[0] + " to " + args[1] + " ("
+			+ new File(args[1]).length() / 1024 + " KB) in " + (System.currentTimeMillis() - start) + " ms");
+	}
+}
@@ -0,0 +1,447 @@
+package com.swabunga.spell.engine;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The journal of the words added to a user dictionary.
+ * <p>
+ * Added words are not appended to the word list itself but to a journal
+ * next to it (the word list name followed by JOURNAL_SUFFIX), one word per
+ * line. append only queues the words; a background writer thread takes
+ * everything queued so far and writes it with one buffered write and one
+ * flush (group commit), so adding many words at once costs one I/O round.
+ * close writes what is left and forces it to disk. The writer is a daemon
+ * thread and the application may exit with System.exit, so the journals
+ * still open are closed by a shutdown hook.
+ * </p>
+ * <p>
+ * The word list belongs to the user and is left alone: compaction only
+ * rewrites the journal itself without the duplicate lines. The writer
+ * compacts after every COMPACT_INTERVAL new journal words and close
+ * compacts once more. The journal is replayed by SpellDictionary when the
+ * word list is loaded again. Only mergeIntoWordList, called when the user
+ * asks to save the added words, rewrites the word list with the journal
+ * words appended and deletes the journal.
+ * </p>
+ * <p>
+ * The journal remembers the length and modification time it left the
+ * files with (see wroteLast), so that DictionaryWatcher does not reload
+ * the dictionary for its own writes.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+final class DictionaryJournal
+{
+
+	/** Appended to the word list file name to name its journal*/
+	static final String JOURNAL_SUFFIX = ".journal";
+	/** Journal words written between two compactions by the writer*/
+	static final int COMPACT_INTERVAL = 1024;
+	/** Milliseconds the writer thread waits for more words before it exits*/
+	private static final long WRITER_IDLE = 5000;
+
+	/** The journals not closed yet, guarded by the class lock*/
+	private static final Set open = new HashSet();
+	/** Set once the shutdown hook is registered, guarded by the class lock*/
+	private static boolean hooked = false;
+
+	private final File wordList;
+	private final File journal;
+
+	/** Words waiting for the writer, guarded by this*/
+	private ArrayList pending = new ArrayList();
+	/** The writer thread, null while none is running, guarded by this*/
+	private Thread writer = null;
+	/** Set by close, guarded by this*/
+	private boolean closed = false;
+	/** Number of batches written, guarded by this*/
+	private long written = 0;
+	/** Number of batches handed to the writer, guarded by this*/
+	private long queued = 0;
+	/** Set by mergeIntoWordList until the writer has merged, guarded by this*/
+	private boolean mergeRequested = false;
+	/** Number of merges done, guarded by this*/
+	private long merges = 0;
+	/** Why the last merge failed, or null, guarded by this*/
+	private IOException mergeFailure = null;
+	/** The length and modification time of each file after the last write, guarded by this*/
+	private final HashMap lastWrites = new HashMap();
+
+	/** The journal append stream, only used by the writing thread*/
+	private FileOutputStream out = null;
+	private Writer outWriter = null;
+	/** Number of words in the journal file, only used by the writing thread*/
+	private int journalWords = 0;
+	/** Number of words in the journal file after the last compaction, only used by the writing thread*/
+	private int compactedWords = 0;
+
+	DictionaryJournal(File wordList) {
+		this.wordList = wordList;
+		this.journal = new File(wordList.getPath() + JOURNAL_SUFFIX);
+		opened(this);
+	}
+
+	private static synchronized void opened(DictionaryJournal journal) {
+		open.add(journal);
+		if (!hooked) {
+			hooked = true;
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					closeAll();
+				}
+			}, "DictionaryJournal shutdown"));
+		}
+	}
+
+	private static synchronized void closed(DictionaryJournal journal) {
+		open.remove(journal);
+	}
+
+	/** Closes every journal still open, called at shutdown*/
+	private static void closeAll() {
+		Object[] journals;
+		synchronized (DictionaryJournal.class) {
+			journals = open.toArray();
+		}
+		for (int i = 0; i < journals.length; i++) {
+			try {
+				((DictionaryJournal) journals[i]).close();
+			} catch (IOException ex) {
+				System.out.println("Error writing to dictionary file");
+			}
+		}
+	}
+
+	/**
+	 * Returns the words of a journal left by an earlier session, in the
+	 * order they were added.
+	 */
+	List replay() throws IOException {
+		ArrayList words = new ArrayList();
+		if (!journal.exists())
+			return words;
+		BufferedReader in = new BufferedReader(new FileReader(journal));
+		try {
+			for (String line = in.readLine(); line != null; line = in.readLine())
+				if (line.length() > 0)
+					words.add(line);
+		} finally {
+			in.close();
+		}
+		synchronized (this) {
+			journalWords = words.size();
+			compactedWords = words.size();
+			wrote(journal);
+		}
+		return words;
+	}
+
+	/** Queues a word for the writer*/
+	void append(String word) {
+		append(Collections.singletonList(word));
+	}
+
+	/** Queues words for the writer, which writes them in one batch*/
+	synchronized void append(Collection words) {
+		if (closed)
+			throw new IllegalStateException("Journal closed");
+		if (words.isEmpty())
+			return;
+		if (pending.isEmpty())
+			queued++;
+		pending.addAll(words);
+		startWriter();
+	}
+
+	/** Starts the writer or wakes it up, guarded by this*/
+	private void startWriter() {
+		if (writer == null) {
+			writer = new Thread(new Runnable() {
+				public void run() {
+					writeLoop();
+				}
+			}, "DictionaryJournal writer");
+			writer.setDaemon(true);
+			writer.start();
+		} else {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until every word queued so far has been written to the journal
+	 * file (not necessarily forced to disk).
+	 */
+	synchronized void flush() throws InterruptedException {
+		long target = queued;
+		while (written < target && writer != null)
+			wait();
+	}
+
+	/**
+	 * Has the writer append the journal words to the word list, dropping
+	 * duplicate lines, and delete the journal. Returns once that is done.
+	 */
+	synchronized void mergeIntoWordList() throws IOException, InterruptedException {
+		if (closed)
+			throw new IllegalStateException("Journal closed");
+		long target = merges + 1;
+		mergeRequested = true;
+		startWriter();
+		while (merges < target)
+			wait();
+		if (mergeFailure != null)
+			throw mergeFailure;
+	}
+
+	/** Returns the word list file*/
+	File getWordList() {
+		return wordList;
+	}
+
+	/** Returns the journal file*/
+	File getJournalFile() {
+		return journal;
+	}
+
+	/** Remembers the length and modification time the file was left with*/
+	private synchronized void wrote(File file) {
+		lastWrites.put(file, new long[] { file.length(), file.lastModified() });
+	}
+
+	/**
+	 * Remembers the file after an append if it had the length it was left
+	 * with before, and forgets it otherwise: someone else appended to it
+	 * meanwhile, so the watcher must reload it.
+	 */
+	private synchronized void appended(File file, long before) {
+		long[] last = (long[]) lastWrites.get(file);
+		if (last == null ? before == 0 : last[0] == before)
+			wrote(file);
+		else
+			lastWrites.remove(file);
+	}
+
+	/**
+	 * Returns true if the file is still as the journal left it, so a change
+	 * seen on it was made by this journal. A file that was deleted by the
+	 * journal and is still missing counts as well.
+	 */
+	synchronized boolean wroteLast(File file) {
+		long[] last = (long[]) lastWrites.get(file);
+		return last != null && last[0] == file.length() && last[1] == file.lastModified();
+	}
+
+	/**
+	 * Writes the queued words, forces the journal to disk and compacts it.
+	 * The journal cannot be appended to afterwards.
+	 */
+	void close() throws IOException {
+		Thread running;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			running = writer;
+			notifyAll();
+		}
+		closed(this);
+		if (running != null) {
+			// The writer must be gone before the journal is compacted under it
+			boolean interrupted = false;
+			while (running.isAlive()) {
+				try {
+					running.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			// The writer may have stopped before seeing the last words
+			boolean merge = mergeRequested;
+			if (merge)
+				mergeFailure = null;
+			try {
+				writeBatch(takePending());
+				closeStream(true);
+				if (merge)
+					merge();
+				else if (journalWords > compactedWords)
+					compact();
+			} catch (IOException ex) {
+				if (merge)
+					mergeFailure = ex;
+				throw ex;
+			} finally {
+				if (merge) {
+					mergeRequested = false;
+					merges++;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/** Takes the queued words out, guarded by this*/
+	private ArrayList takePending() {
+		ArrayList batch = pending;
+		pending = new ArrayList();
+		return batch;
+	}
+
+	private void writeLoop() {
+		while (true) {
+			ArrayList batch;
+			boolean merge;
+			synchronized (this) {
+				if (pending.isEmpty() && !mergeRequested && !closed) {
+					try {
+						wait(WRITER_IDLE);
+					} catch (InterruptedException e) {
+						// Exit below, the words stay queued for close
+					}
+				}
+				if ((pending.isEmpty() && !mergeRequested) || closed) {
+					writer = null;
+					notifyAll();
+					return;
+				}
+				batch = takePending();
+				merge = mergeRequested;
+			}
+			IOException failure = null;
+			try {
+				writeBatch(batch);
+				if (merge) {
+					closeStream(true);
+					merge();
+				} else if (journalWords - compactedWords >= COMPACT_INTERVAL) {
+					closeStream(true);
+					compact();
+				}
+			} catch (IOException ex) {
+				failure = ex;
+				if (!merge)
+					System.out.println("Error writing to dictionary file: " + ex);
+			}
+			synchronized (this) {
+				if (!batch.isEmpty())
+					written++;
+				if (merge) {
+					mergeRequested = false;
+					mergeFailure = failure;
+					merges++;
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/** Appends the words to the journal with one write and one flush*/
+	private void writeBatch(List words) throws IOException {
+		if (words.isEmpty())
+			return;
+		long before = journal.length();
+		if (outWriter == null) {
+			out = new FileOutputStream(journal, true);
+			outWriter = new BufferedWriter(new OutputStreamWriter(out));
+		}
+		for (int i = 0; i < words.size(); i++) {
+			outWriter.write((String) words.get(i));
+			outWriter.write("\n");
+		}
+		outWriter.flush();
+		journalWords += words.size();
+		appended(journal, before);
+	}
+
+	private void closeStream(boolean force) throws IOException {
+		if (outWriter == null)
+			return;
+		try {
+			outWriter.flush();
+			if (force)
+				out.getFD().sync();
+		} finally {
+			outWriter.close();
+			outWriter = null;
+			out = null;
+		}
+	}
+
+	/**
+	 * Rewrites the journal without its duplicate lines. The word list is not
+	 * touched.
+	 */
+	private void compact() throws IOException {
+		LinkedHashSet words = new LinkedHashSet();
+		readLines(journal, words);
+		replace(journal, words);
+		wrote(journal);
+		journalWords = words.size();
+		compactedWords = journalWords;
+	}
+
+	/**
+	 * Rewrites the word list with the journal words appended and duplicate
+	 * lines dropped, then deletes the journal. A crash leaves either the old
+	 * list and the journal or the merged list.
+	 */
+	private void merge() throws IOException {
+		LinkedHashSet words = new LinkedHashSet();
+		readLines(wordList, words);
+		readLines(journal, words);
+		replace(wordList, words);
+		wrote(wordList);
+		journal.delete();
+		wrote(journal);
+		journalWords = 0;
+		compactedWords = 0;
+	}
+
+	/**
+	 * Writes the lines to a temporary file, forced to disk, and moves it
+	 * over the file.
+	 */
+	private static void replace(File file, Collection words) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream tempOut = new FileOutputStream(temp);
+		try {
+			Writer w = new BufferedWriter(new OutputStreamWriter(tempOut));
+			for (Iterator i = words.iterator(); i.hasNext();) {
+				w.write((String) i.next());
+				w.write("\n");
+			}
+			w.flush();
+			tempOut.getFD().sync();
+		} finally {
+			tempOut.close();
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void readLines(File file, Collection lines) throws IOException {
+		if (!file.exists())
+			return;
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			for (String line = in.readLine(); line != null; line = in.readLine())
+				if (line.length() > 0)
+					lines.add(line);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package com.swabunga.spell.engine;
+
+import java.io.*;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A process wide cache of loaded dictionaries, so that several editors
+ * using the same word list share one SpellDictionary instead of loading a
+ * copy each.
+ * <p>
+ * Dictionaries are keyed by word list (bundled resource name or file) and
+ * phonetic file. acquire hands out the shared instance and counts its
+ * users; dispose on the dictionary (or release) gives it back. A dictionary
+ * nobody uses any more is only softly reachable, so it is reused if it is
+ * asked for again before the collector needs the memory, and at most
+ * MAX_IDLE such dictionaries are kept.
+ * </p>
+ * <p>
+ * The registry owns the shutdown of the dictionaries it hands out: when it
+ * drops one, evicted or taken by the collector, it closes its journal and
+ * watcher (see SpellDictionary.close). The closing is done outside the
+ * registry lock, as it writes to disk.
+ * </p>
+ * <p>
+ * The dictionaries are shared, so words added with addWord are seen by all
+ * their users. Loading happens outside the registry lock: different
+ * dictionaries load in parallel and concurrent requests for the same one
+ * wait for a single load.
+ * </p>
+ * <p>
+ * Dictionaries read from a word list file are watched (see
+ * SpellDictionary.setWatching), so an update of a shared list reaches
+ * every editor without a restart.
+ * </p>
+ */
+public final class DictionaryRegistry
+{
+
+	/** The number of unused dictionaries kept for reuse*/
+	public static final int MAX_IDLE = 4;
+
+	/** The entries by key, in least recently used order*/
+	private static final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+	/** The entry of every dictionary that has users, by identity*/
+	private static final IdentityHashMap keys = new IdentityHashMap();
+	/** The soft references of idle entries the collector has cleared*/
+	private static final ReferenceQueue collected = new ReferenceQueue();
+
+	private DictionaryRegistry() {
+	}
+
+	/**
+	 * Returns the shared dictionary for a word list bundled in the
+	 * dictionary resource folder, loading it if needed.
+	 */
+	public static SpellDictionary acquire(final String wordListResource) throws IOException {
+		return acquire("resource:" + wordListResource, new Callable() {
+			public Object call() throws IOException {
+				return watched(new SpellDictionary(wordListResource));
+			}
+		});
+	}
+
+	/**
+	 * Returns the shared dictionary for a word list file, loading it if needed.
+	 */
+	public static SpellDictionary acquire(final File wordList) throws IOException {
+		return acquire("file:" + wordList.getCanonicalPath(), new Callable() {
+			public Object call() throws IOException {
+				return watched(new SpellDictionary(wordList));
+			}
+		});
+	}
+
+	/**
+	 * Returns the shared dictionary for a word list file coded with an aspell
+	 * phonetic file, loading it if needed.
+	 */
+	public static SpellDictionary acquire(final File wordList, final File phonetic) throws IOException {
+		return acquire("file:" + wordList.getCanonicalPath() + "|" + phonetic.getCanonicalPath(), new Callable() {
+			public Object call() throws IOException {
+				return watched(new SpellDictionary(wordList, phonetic));
+			}
+		});
+	}
+
+	/** Turns on watching the word list, a dictionary that cannot be watched is still used*/
+	private static SpellDictionary watched(SpellDictionary dictionary) {
+		try {
+			dictionary.setWatching(true);
+		} catch (IOException ex) {
+			System.out.println("Cannot watch dictionary file: " + ex.getMessage());
+		}
+		return dictionary;
+	}
+
+	private static SpellDictionary acquire(String key, Callable loader) throws IOException {
+		Entry entry;
+		FutureTask load = null;
+		Future pending;
+		SpellDictionary dictionary;
+		ArrayList dropped = new ArrayList();
+		synchronized (DictionaryRegistry.class) {
+			expunge(dropped);
+			entry = (Entry) entries.get(key);
+			if (entry != null && entry.users == 0 && entry.dictionary == null && entry.loading == null) {
+				// Idle: revive it unless the collector has already taken it
+				SpellDictionary cached = (SpellDictionary) entry.cache.get();
+				if (cached == null) {
+					entries.remove(key);
+					dropped.add(entry);
+					entry = null;
+				} else {
+					entry.dictionary = cached;
+					entry.watcher = null;
+					entry.journal = null;
+					keys.put(cached, entry);
+				}
+			}
+			if (entry == null) {
+				entry = new Entry(key);
+				entry.loading = load = new FutureTask(loader);
+				entries.put(key, entry);
+			}
+			entry.users++;
+			pending = entry.loading;
+			dictionary = entry.dictionary;
+		}
+		close(dropped);
+		if (load != null)
+			load.run();
+		if (pending == null)
+			return dictionary;
+		try {
+			dictionary = (SpellDictionary) pending.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			synchronized (DictionaryRegistry.class) {
+				release(entry, dropped);
+			}
+			close(dropped);
+			throw new InterruptedIOException("Interrupted while loading dictionary " + key);
+		} catch (ExecutionException ex) {
+			synchronized (DictionaryRegistry.class) {
+				if (entries.get(key) == entry)
+					entries.remove(key);
+			}
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException("Could not load dictionary " + key + ": " + cause);
+		}
+		synchronized (DictionaryRegistry.class) {
+			if (entry.loading != null) {
+				entry.dictionary = dictionary;
+				entry.cache = new IdleReference(dictionary, entry);
+				entry.loading = null;
+				keys.put(dictionary, entry);
+				dictionary.registered = true;
+				// Every waiter gave up, so nobody holds it: straight to the idle entries
+				if (entry.users == 0)
+					idle(entry, dropped);
+			}
+		}
+		close(dropped);
+		return dictionary;
+	}
+
+	/**
+	 * Gives back a dictionary obtained from acquire. Returns false if the
+	 * dictionary was not handed out by the registry.
+	 */
+	public static boolean release(SpellDictionary dictionary) {
+		ArrayList dropped = new ArrayList();
+		synchronized (DictionaryRegistry.class) {
+			Entry entry = (Entry) keys.get(dictionary);
+			if (entry == null)
+				return false;
+			release(entry, dropped);
+			expunge(dropped);
+		}
+		close(dropped);
+		return true;
+	}
+
+	/** Gives back one use of the entry, adding the entries dropped to dropped. Guarded by the registry lock*/
+	private static void release(Entry entry, List dropped) {
+		if (entry.users == 0)
+			return;
+		if (--entry.users > 0 || entry.dictionary == null)
+			return;
+		idle(entry, dropped);
+	}
+
+	/**
+	 * Keeps the dictionary of an entry without users only softly reachable
+	 * for reuse, within the idle bound. Guarded by the registry lock.
+	 */
+	private static void idle(Entry entry, List dropped) {
+		keys.remove(entry.dictionary);
+		entry.watcher = entry.dictionary.getWatcher();
+		entry.journal = entry.dictionary.getJournal();
+		entry.dictionary = null;
+		int idle = 0;
+		for (Iterator i = entries.values().iterator(); i.hasNext();) {
+			Entry e = (Entry) i.next();
+			if (e.users == 0 && e.loading == null)
+				idle++;
+		}
+		for (Iterator i = entries.values().iterator(); idle > MAX_IDLE && i.hasNext();) {
+			Entry e = (Entry) i.next();
+			if (e.users == 0 && e.loading == null) {
+				i.remove();
+				dropped.add(e);
+				idle--;
+			}
+		}
+	}
+
+	/** Drops the idle entries whose dictionary the collector has taken. Guarded by the registry lock*/
+	private static void expunge(List dropped) {
+		for (IdleReference ref = (IdleReference) collected.poll(); ref != null; ref = (IdleReference) collected.poll()) {
+			Entry entry = ref.entry;
+			if (entries.get(entry.key) == entry && entry.users == 0 && entry.loading == null) {
+				entries.remove(entry.key);
+				dropped.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * Closes the dictionaries of the dropped entries, or their journal and
+	 * watcher if the collector has taken them, and empties the list. Called
+	 * outside the lock.
+	 */
+	private static void close(List dropped) {
+		for (int i = 0; i < dropped.size(); i++) {
+			Entry entry = (Entry) dropped.get(i);
+			SpellDictionary dictionary = (SpellDictionary) entry.cache.get();
+			if (dictionary != null)
+				dictionary.close();
+			else
+				SpellDictionary.close(entry.watcher, entry.journal);
+		}
+		dropped.clear();
+	}
+
+	/**
+	 * Returns the number of users of the shared dictionary, 0 if it is idle
+	 * or not handed out by the registry.
+	 */
+	public static synchronized int getUsers(SpellDictionary dictionary) {
+		Entry entry = (Entry) keys.get(dictionary);
+		return entry == null ? 0 : entry.users;
+	}
+
+	/** A registry entry, guarded by the registry lock*/
+	private static final class Entry {
+		final String key;
+		/** Set while the dictionary loads*/
+		FutureTask loading;
+		/** Strong reference, held while the dictionary has users*/
+		SpellDictionary dictionary;
+		/** Soft reference, kept while the dictionary is idle*/
+		SoftReference cache;
+		/** The watcher and journal of the idle dictionary, closed if the collector takes it*/
+		DictionaryWatcher watcher;
+		DictionaryJournal journal;
+		int users = 0;
+
+		Entry(String key) {
+			this.key = key;
+		}
+	}
+
+	/** The soft reference of an entry, queued on collected once cleared*/
+	private static final class IdleReference extends SoftReference {
+		final Entry entry;
+
+		IdleReference(SpellDictionary dictionary, Entry entry) {
+			super(dictionary, collected);
+			this.entry = entry;
+		}
+	}
+}
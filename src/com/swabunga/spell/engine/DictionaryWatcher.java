@@ -0,0 +1,130 @@
+package com.swabunga.spell.engine;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads a SpellDictionary when its word list file or journal changes on
+ * disk, for instance when an administrator updates a shared word list while
+ * editors are running.
+ * <p>
+ * A daemon thread waits on a WatchService for the directory of the word
+ * list. Files are often saved in several writes, or written to a temporary
+ * file that is moved over the old one, so after the first event the thread
+ * waits until the files have been quiet for SETTLE_DELAY and then calls
+ * reloadWordList or reloadJournal once. The reload runs on this thread and
+ * ends by publishing a new snapshot, so checking is never blocked by it.
+ * </p>
+ * <p>
+ * The dictionary's own journal writes to these files too. A file still as
+ * the journal left it (see DictionaryJournal.wroteLast) is not reloaded.
+ * </p>
+ * <p>
+ * The thread holds the dictionary weakly and stops once it has been
+ * collected, or when close is called.
+ * </p>
+ */
+final class DictionaryWatcher implements Runnable
+{
+
+	/** Milliseconds without events before the changes are applied*/
+	static final long SETTLE_DELAY = 500;
+	/** Milliseconds between checks that the dictionary is still in use*/
+	private static final long ALIVE_CHECK = 10000;
+
+	private final WeakReference dictionary;
+	private final WatchService service;
+	private final String wordListName;
+	private final String journalName;
+	private final Thread thread;
+
+	/**
+	 * Starts watching the word list of the dictionary and its journal.
+	 */
+	DictionaryWatcher(SpellDictionary dictionary, File wordList) throws IOException {
+		this.dictionary = new WeakReference(dictionary);
+		File file = wordList.getAbsoluteFile();
+		wordListName = file.getName();
+		journalName = wordListName + DictionaryJournal.JOURNAL_SUFFIX;
+		service = FileSystems.getDefault().newWatchService();
+		try {
+			file.getParentFile().toPath().register(service,
+				StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException ex) {
+			service.close();
+			throw ex;
+		}
+		thread = new Thread(this, "Dictionary watcher " + wordListName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/** Stops watching, a reload in progress is finished*/
+	void close() {
+		thread.interrupt();
+		try {
+			service.close();
+		} catch (IOException ex) {
+		}
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				WatchKey key = service.poll(ALIVE_CHECK, TimeUnit.MILLISECONDS);
+				if (dictionary.get() == null)
+					break;
+				if (key == null)
+					continue;
+				boolean list = false, journal = false;
+				// Take the events until the files have been quiet for SETTLE_DELAY
+				while (key != null) {
+					for (Iterator i = key.pollEvents().iterator(); i.hasNext();) {
+						WatchEvent event = (WatchEvent) i.next();
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							list = journal = true;
+							continue;
+						}
+						String name = event.context().toString();
+						list |= name.equals(wordListName);
+						journal |= name.equals(journalName);
+					}
+					key.reset();
+					key = service.poll(SETTLE_DELAY, TimeUnit.MILLISECONDS);
+				}
+				if (list || journal)
+					reload(list, journal);
+			}
+		} catch (InterruptedException ex) {
+		} catch (ClosedWatchServiceException ex) {
+		} finally {
+			try {
+				service.close();
+			} catch (IOException ex) {
+			}
+		}
+	}
+
+	private void reload(boolean list, boolean journal) {
+		SpellDictionary d = (SpellDictionary) dictionary.get();
+		if (d == null)
+			return;
+		DictionaryJournal j = d.getJournal();
+		if (j != null) {
+			list &= !j.wroteLast(j.getWordList());
+			journal &= !j.wroteLast(j.getJournalFile());
+		}
+		try {
+			if (list)
+				d.reloadWordList();
+			if (journal)
+				d.reloadJournal();
+		} catch (IOException ex) {
+			System.out.println("Error reloading dictionary file " + wordListName + ": " + ex);
+			ex.printStackTrace(System.out);
+		}
+	}
+}
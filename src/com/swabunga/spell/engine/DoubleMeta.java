@@ -6,6 +6,8 @@
 
 package  com.swabunga.spell.engine;
 
+import java.util.Locale;
+
 
 /**
  * Double Meta class
@@ -21,307 +23,324 @@ package  com.swabunga.spell.engine;
  */
 class DoubleMeta implements Transformator{
 
-    private static final String[] myList = {
+    private static final char[][] myList = compile(new String[] {
         "GN", "KN", "PN", "WR", "PS", ""
-    };
-    private static final String[] list1 = {
+    });
+    private static final char[][] list1 = compile(new String[] {
         "ACH", ""
-    };
-    private static final String[] list2 = {
+    });
+    private static final char[][] list2 = compile(new String[] {
         "BACHER", "MACHER", ""
-    };
-    private static final String[] list3 = {
+    });
+    private static final char[][] list3 = compile(new String[] {
         "CAESAR", ""
-    };
-    private static final String[] list4 = {
+    });
+    private static final char[][] list4 = compile(new String[] {
         "CHIA", ""
-    };
-    private static final String[] list5 = {
+    });
+    private static final char[][] list5 = compile(new String[] {
         "CH", ""
-    };
-    private static final String[] list6 = {
+    });
+    private static final char[][] list6 = compile(new String[] {
         "CHAE", ""
-    };
-    private static final String[] list7 = {
+    });
+    private static final char[][] list7 = compile(new String[] {
         "HARAC", "HARIS", ""
-    };
-    private static final String[] list8 = {
+    });
+    private static final char[][] list8 = compile(new String[] {
         "HOR", "HYM", "HIA", "HEM", ""
-    };
-    private static final String[] list9 = {
+    });
+    private static final char[][] list9 = compile(new String[] {
         "CHORE", ""
-    };
-    private static final String[] list10 = {
+    });
+    private static final char[][] list10 = compile(new String[] {
         "VAN ", "VON ", ""
-    };
-    private static final String[] list11 = {
+    });
+    private static final char[][] list11 = compile(new String[] {
         "SCH", ""
-    };
-    private static final String[] list12 = {
+    });
+    private static final char[][] list12 = compile(new String[] {
         "ORCHES", "ARCHIT", "ORCHID", ""
-    };
-    private static final String[] list13 = {
+    });
+    private static final char[][] list13 = compile(new String[] {
         "T", "S", ""
-    };
-    private static final String[] list14 = {
+    });
+    private static final char[][] list14 = compile(new String[] {
         "A", "O", "U", "E", ""
-    };
-    private static final String[] list15 = {
+    });
+    private static final char[][] list15 = compile(new String[] {
         "L", "R", "N", "M", "B", "H", "F", "V", "W", " ", ""
-    };
-    private static final String[] list16 = {
+    });
+    private static final char[][] list16 = compile(new String[] {
         "MC", ""
-    };
-    private static final String[] list17 = {
+    });
+    private static final char[][] list17 = compile(new String[] {
         "CZ", ""
-    };
-    private static final String[] list18 = {
+    });
+    private static final char[][] list18 = compile(new String[] {
         "WICZ", ""
-    };
-    private static final String[] list19 = {
+    });
+    private static final char[][] list19 = compile(new String[] {
         "CIA", ""
-    };
-    private static final String[] list20 = {
+    });
+    private static final char[][] list20 = compile(new String[] {
         "CC", ""
-    };
-    private static final String[] list21 = {
+    });
+    private static final char[][] list21 = compile(new String[] {
         "I", "E", "H", ""
-    };
-    private static final String[] list22 = {
+    });
+    private static final char[][] list22 = compile(new String[] {
         "HU", ""
-    };
-    private static final String[] list23 = {
+    });
+    private static final char[][] list23 = compile(new String[] {
         "UCCEE", "UCCES", ""
-    };
-    private static final String[] list24 = {
+    });
+    private static final char[][] list24 = compile(new String[] {
         "CK", "CG", "CQ", ""
-    };
-    private static final String[] list25 = {
+    });
+    private static final char[][] list25 = compile(new String[] {
         "CI", "CE", "CY", ""
-    };
-    private static final String[] list26 = {
+    });
+    private static final char[][] list26 = compile(new String[] {
         "CIO", "CIE", "CIA", ""
-    };
-    private static final String[] list27 = {
+    });
+    private static final char[][] list27 = compile(new String[] {
         " C", " Q", " G", ""
-    };
-    private static final String[] list28 = {
+    });
+    private static final char[][] list28 = compile(new String[] {
         "C", "K", "Q", ""
-    };
-    private static final String[] list29 = {
+    });
+    private static final char[][] list29 = compile(new String[] {
         "CE", "CI", ""
-    };
-    private static final String[] list30 = {
+    });
+    private static final char[][] list30 = compile(new String[] {
         "DG", ""
-    };
-    private static final String[] list31 = {
+    });
+    private static final char[][] list31 = compile(new String[] {
         "I", "E", "Y", ""
-    };
-    private static final String[] list32 = {
+    });
+    private static final char[][] list32 = compile(new String[] {
         "DT", "DD", ""
-    };
-    private static final String[] list33 = {
+    });
+    private static final char[][] list33 = compile(new String[] {
         "B", "H", "D", ""
-    };
-    private static final String[] list34 = {
+    });
+    private static final char[][] list34 = compile(new String[] {
         "B", "H", "D", ""
-    };
-    private static final String[] list35 = {
+    });
+    private static final char[][] list35 = compile(new String[] {
         "B", "H", ""
-    };
-    private static final String[] list36 = {
+    });
+    private static final char[][] list36 = compile(new String[] {
         "C", "G", "L", "R", "T", ""
-    };
-    private static final String[] list37 = {
+    });
+    private static final char[][] list37 = compile(new String[] {
         "EY", ""
-    };
-    private static final String[] list38 = {
+    });
+    private static final char[][] list38 = compile(new String[] {
         "LI", ""
-    };
-    private static final String[] list39 = {
+    });
+    private static final char[][] list39 = compile(new String[] {
         "ES", "EP", "EB", "EL", "EY", "IB", "IL", "IN", "IE", "EI", "ER",
         ""
-    };
-    private static final String[] list40 = {
+    });
+    private static final char[][] list40 = compile(new String[] {
         "ER", ""
-    };
-    private static final String[] list41 = {
+    });
+    private static final char[][] list41 = compile(new String[] {
         "DANGER", "RANGER", "MANGER", ""
-    };
-    private static final String[] list42 = {
+    });
+    private static final char[][] list42 = compile(new String[] {
         "E", "I", ""
-    };
-    private static final String[] list43 = {
+    });
+    private static final char[][] list43 = compile(new String[] {
         "RGY", "OGY", ""
-    };
-    private static final String[] list44 = {
+    });
+    private static final char[][] list44 = compile(new String[] {
         "E", "I", "Y", ""
-    };
-    private static final String[] list45 = {
+    });
+    private static final char[][] list45 = compile(new String[] {
         "AGGI", "OGGI", ""
-    };
-    private static final String[] list46 = {
+    });
+    private static final char[][] list46 = compile(new String[] {
         "VAN ", "VON ", ""
-    };
-    private static final String[] list47 = {
+    });
+    private static final char[][] list47 = compile(new String[] {
         "SCH", ""
-    };
-    private static final String[] list48 = {
+    });
+    private static final char[][] list48 = compile(new String[] {
         "ET", ""
-    };
-    private static final String[] list49 = {
+    });
+    private static final char[][] list49 = compile(new String[] {
         "IER ", ""
-    };
-    private static final String[] list50 = {
+    });
+    private static final char[][] list50 = compile(new String[] {
         "JOSE", ""
-    };
-    private static final String[] list51 = {
+    });
+    private static final char[][] list51 = compile(new String[] {
         "SAN ", ""
-    };
-    private static final String[] list52 = {
+    });
+    private static final char[][] list52 = compile(new String[] {
         "SAN ", ""
-    };
-    private static final String[] list53 = {
+    });
+    private static final char[][] list53 = compile(new String[] {
         "JOSE", ""
-    };
-    private static final String[] list54 = {
+    });
+    private static final char[][] list54 = compile(new String[] {
         "L", "T", "K", "S", "N", "M", "B", "Z", ""
-    };
-    private static final String[] list55 = {
+    });
+    private static final char[][] list55 = compile(new String[] {
         "S", "K", "L", ""
-    };
-    private static final String[] list56 = {
+    });
+    private static final char[][] list56 = compile(new String[] {
         "ILLO", "ILLA", "ALLE", ""
-    };
-    private static final String[] list57 = {
+    });
+    private static final char[][] list57 = compile(new String[] {
         "AS", "OS", ""
-    };
-    private static final String[] list58 = {
+    });
+    private static final char[][] list58 = compile(new String[] {
         "A", "O", ""
-    };
-    private static final String[] list59 = {
+    });
+    private static final char[][] list59 = compile(new String[] {
         "ALLE", ""
-    };
-    private static final String[] list60 = {
+    });
+    private static final char[][] list60 = compile(new String[] {
         "UMB", ""
-    };
-    private static final String[] list61 = {
+    });
+    private static final char[][] list61 = compile(new String[] {
         "ER", ""
-    };
-    private static final String[] list62 = {
+    });
+    private static final char[][] list62 = compile(new String[] {
         "P", "B", ""
-    };
-    private static final String[] list63 = {
+    });
+    private static final char[][] list63 = compile(new String[] {
         "IE", ""
-    };
-    private static final String[] list64 = {
+    });
+    private static final char[][] list64 = compile(new String[] {
         "ME", "MA", ""
-    };
-    private static final String[] list65 = {
+    });
+    private static final char[][] list65 = compile(new String[] {
         "ISL", "YSL", ""
-    };
-    private static final String[] list66 = {
+    });
+    private static final char[][] list66 = compile(new String[] {
         "SUGAR", ""
-    };
-    private static final String[] list67 = {
+    });
+    private static final char[][] list67 = compile(new String[] {
         "SH", ""
-    };
-    private static final String[] list68 = {
+    });
+    private static final char[][] list68 = compile(new String[] {
         "HEIM", "HOEK", "HOLM", "HOLZ", ""
-    };
-    private static final String[] list69 = {
+    });
+    private static final char[][] list69 = compile(new String[] {
         "SIO", "SIA", ""
-    };
-    private static final String[] list70 = {
+    });
+    private static final char[][] list70 = compile(new String[] {
         "SIAN", ""
-    };
-    private static final String[] list71 = {
+    });
+    private static final char[][] list71 = compile(new String[] {
         "M", "N", "L", "W", ""
-    };
-    private static final String[] list72 = {
+    });
+    private static final char[][] list72 = compile(new String[] {
         "Z", ""
-    };
-    private static final String[] list73 = {
+    });
+    private static final char[][] list73 = compile(new String[] {
         "Z", ""
-    };
-    private static final String[] list74 = {
+    });
+    private static final char[][] list74 = compile(new String[] {
         "SC", ""
-    };
-    private static final String[] list75 = {
+    });
+    private static final char[][] list75 = compile(new String[] {
         "OO", "ER", "EN", "UY", "ED", "EM", ""
-    };
-    private static final String[] list76 = {
+    });
+    private static final char[][] list76 = compile(new String[] {
         "ER", "EN", ""
-    };
-    private static final String[] list77 = {
+    });
+    private static final char[][] list77 = compile(new String[] {
         "I", "E", "Y", ""
-    };
-    private static final String[] list78 = {
+    });
+    private static final char[][] list78 = compile(new String[] {
         "AI", "OI", ""
-    };
-    private static final String[] list79 = {
+    });
+    private static final char[][] list79 = compile(new String[] {
         "S", "Z", ""
-    };
-    private static final String[] list80 = {
+    });
+    private static final char[][] list80 = compile(new String[] {
         "TION", ""
-    };
-    private static final String[] list81 = {
+    });
+    private static final char[][] list81 = compile(new String[] {
         "TIA", "TCH", ""
-    };
-    private static final String[] list82 = {
+    });
+    private static final char[][] list82 = compile(new String[] {
         "TH", ""
-    };
-    private static final String[] list83 = {
+    });
+    private static final char[][] list83 = compile(new String[] {
         "TTH", ""
-    };
-    private static final String[] list84 = {
+    });
+    private static final char[][] list84 = compile(new String[] {
         "OM", "AM", ""
-    };
-    private static final String[] list85 = {
+    });
+    private static final char[][] list85 = compile(new String[] {
         "VAN ", "VON ", ""
-    };
-    private static final String[] list86 = {
+    });
+    private static final char[][] list86 = compile(new String[] {
         "SCH", ""
-    };
-    private static final String[] list87 = {
+    });
+    private static final char[][] list87 = compile(new String[] {
         "T", "D", ""
-    };
-    private static final String[] list88 = {
+    });
+    private static final char[][] list88 = compile(new String[] {
         "WR", ""
-    };
-    private static final String[] list89 = {
+    });
+    private static final char[][] list89 = compile(new String[] {
         "WH", ""
-    };
-    private static final String[] list90 = {
+    });
+    private static final char[][] list90 = compile(new String[] {
         "EWSKI", "EWSKY", "OWSKI", "OWSKY", ""
-    };
-    private static final String[] list91 = {
+    });
+    private static final char[][] list91 = compile(new String[] {
         "SCH", ""
-    };
-    private static final String[] list92 = {
+    });
+    private static final char[][] list92 = compile(new String[] {
         "WICZ", "WITZ", ""
-    };
-    private static final String[] list93 = {
+    });
+    private static final char[][] list93 = compile(new String[] {
         "IAU", "EAU", ""
-    };
-    private static final String[] list94 = {
+    });
+    private static final char[][] list94 = compile(new String[] {
         "AU", "OU", ""
-    };
-    private static final String[] list95 = {
+    });
+    private static final char[][] list95 = compile(new String[] {
         "C", "X", ""
-    };
-    private static final String[] list96 = {
+    });
+    private static final char[][] list96 = compile(new String[] {
         "ZO", "ZI", "ZA", ""
-    };
+    });
+
+  /**
+   * Turns a lookup list into char arrays, dropping the empty terminator, so
+   * that stringAt compares chars in place instead of taking substrings.
+   */
+  private static char[][] compile (String[] list) {
+    int count = 0;
+    for (int i = 0; i < list.length; i++)
+      if (list[i].length() > 0)
+        count++;
+    char[][] result = new char[count][];
+    for (int i = 0, j = 0; i < list.length; i++)
+      if (list[i].length() > 0)
+        result[j++] = list[i].toCharArray();
+    return  result;
+  }
 
   /**
    * put your documentation comment here
    * @return
    */
-  private final static boolean SlavoGermanic (String in) {
-    if ((in.indexOf("W") > -1) || (in.indexOf("K") > -1) || (in.indexOf("CZ") > -1)
-        || (in.indexOf("WITZ") > -1))
-      return  true;
+  private final static boolean SlavoGermanic (char[] in, int length) {
+    for (int i = 0; i < length; i++) {
+      if ((in[i] == 'W') || (in[i] == 'K') || (in[i] == 'C') && (i + 1 < length) && (in[i + 1] == 'Z'))
+        return  true;
+    }
     return  false;
   }
 
@@ -329,13 +348,13 @@ class DoubleMeta implements Transformator{
    * put your documentation comment here
    * @param main
    */
-  private final static void MetaphAdd (StringBuffer primary, String main) {
+  private final static void MetaphAdd (StringBuilder primary, String main) {
     if (main != null) {
       primary.append(main);
     }
   }
 
-  private final static void MetaphAdd (StringBuffer primary, char main) {
+  private final static void MetaphAdd (StringBuilder primary, char main) {
     primary.append(main);
   }  
  
@@ -344,10 +363,10 @@ class DoubleMeta implements Transformator{
    * @param at
    * @return
    */
-  private final static boolean isVowel (String in, int at, int length) {
+  private final static boolean isVowel (char[] in, int at, int length) {
     if ((at < 0) || (at >= length))
       return  false;
-    char it = in.charAt(at);
+    char it = in[at];
     if ((it == 'A') || (it == 'E') || (it == 'I') || (it == 'O') || (it ==
         'U') || (it == 'Y'))
       return  true;
@@ -355,19 +374,29 @@ class DoubleMeta implements Transformator{
   }
 
   /**
-   * put your documentation comment here
+   * Returns true if one of the list entries of the given length is found at
+   * start. Same result as comparing substring(start, start + length) with
+   * each entry, without the substring.
    * @param string
+   * @param stringLength
    * @param start
    * @param length
    * @param list
    * @return
    */
-  private final static boolean stringAt (String string, int start, int length, String[] list) {
-    if ((start < 0) || (start >= string.length()) || list.length == 0 )
+  private final static boolean stringAt (char[] string, int stringLength, int start, int length, char[][] list) {
+    if ((start < 0) || (start >= stringLength) || list.length == 0 )
       return  false;
-    String substr = string.substring(start, start + length);
+    if (start + length > stringLength)
+      throw new StringIndexOutOfBoundsException(start + length);
     for (int i = 0; i < list.length; i++) {
-      if (list[i].equals(substr))
+      char[] entry = list[i];
+      if (entry.length != length || entry[0] != string[start])
+        continue;
+      int j = 1;
+      while (j < length && entry[j] == string[start + j])
+        j++;
+      if (j == length)
         return  true;
     }
     return  false;
@@ -379,22 +408,54 @@ class DoubleMeta implements Transformator{
    * @return
    */
   public final String transform (String word) {
-    StringBuffer primary = new StringBuffer( word.length() + 5 );
-    String in = word.toUpperCase() + "     ";
+    StringBuilder primary = new StringBuilder( word.length() + 5 );
+    transform(word, 0, word.length(), null, primary);
+    return  primary.toString();
+  }
+
+  /**
+   * Codes the chars start .. end of word into primary, which is cleared
+   * first. Gives the same code as transform(String), but the upper case
+   * copy of the word is made in the scratch array, which is reused if it is
+   * big enough, and no String is created for ASCII words.
+   * @param word The chars holding the word to process.
+   * @param scratch A buffer for the upper case word, or null.
+   * @param primary Receives the code.
+   * @return The scratch array, possibly replaced by a bigger one.
+   */
+  public final char[] transform (CharSequence word, int start, int end, char[] scratch, StringBuilder primary) {
+    primary.setLength(0);
+    String upper = null;
+    if (!isAscii(word, start, end) || upperCaseNeedsLocale())
+      upper = word.subSequence(start, end).toString().toUpperCase();
+    int length = (upper != null ? upper.length() : end - start) + 5;
+    char[] in = scratch;
+    if (in == null || in.length < length)
+      in = new char[Math.max(length, 32)];
+    if (upper != null) {
+      upper.getChars(0, upper.length(), in, 0);
+    }
+    else {
+      for (int i = start; i < end; i++) {
+        char ch = word.charAt(i);
+        in[i - start] = (ch >= 'a' && ch <= 'z') ? (char) (ch - ('a' - 'A')) : ch;
+      }
+    }
+    for (int i = length - 5; i < length; i++)
+      in[i] = ' ';
     int current = 0;
-    int length = in.length();
     if (length < 1)
-      return  "";
+      return  in;
     int last = length - 1;
-    boolean isSlavoGermaic = SlavoGermanic(in);
-    if (stringAt(in, 0, 2, myList))
+    boolean isSlavoGermaic = SlavoGermanic(in, length);
+    if (stringAt(in, length, 0, 2, myList))
       current += 1;
-    if (in.charAt(0) == 'X') {
+    if (in[0] == 'X') {
       MetaphAdd(primary, 'S');
       current += 1;
     }
     while (current < length ) {
-      switch (in.charAt(current)) {
+      switch (in[current]) {
         case 'A':case 'E':case 'I':case 'O':case 'U':case 'Y':
           if (current == 0)
             MetaphAdd(primary, 'A');
@@ -402,7 +463,7 @@ class DoubleMeta implements Transformator{
           break;
         case 'B':
           MetaphAdd(primary, 'P');
-          if (in.charAt(current + 1) == 'B')
+          if (in[current + 1] == 'B')
             current += 2;
           else
             current += 1;
@@ -412,45 +473,45 @@ class DoubleMeta implements Transformator{
           current += 1;
           break;
         case 'C':
-          if ((current > 1) && !isVowel(in, current - 2, length) && stringAt(in, (current
-              - 1), 3, list1) && (in.charAt(current + 2) != 'I') && (in.charAt(
-              current + 2) != 'E') || stringAt(in, (current - 2), 6, list2)) {
+          if ((current > 1) && !isVowel(in, current - 2, length) && stringAt(in, length, (current
+              - 1), 3, list1) && (in[current + 2] != 'I') && (in[
+              current + 2] != 'E') || stringAt(in, length, (current - 2), 6, list2)) {
             MetaphAdd(primary, 'K');
             current += 2;
             break;
           }
-          if ((current == 0) && stringAt(in, current, 6, list3)) {
+          if ((current == 0) && stringAt(in, length, current, 6, list3)) {
             MetaphAdd(primary, 'S');
             current += 2;
             break;
           }
-          if (stringAt(in, current, 4, list4)) {
+          if (stringAt(in, length, current, 4, list4)) {
             MetaphAdd(primary, 'K');
             current += 2;
             break;
           }
-          if (stringAt(in, current, 2, list5)) {
-            if ((current > 0) && stringAt(in, current, 4, list6)) {
+          if (stringAt(in, length, current, 2, list5)) {
+            if ((current > 0) && stringAt(in, length, current, 4, list6)) {
               MetaphAdd(primary, 'K' );
               current += 2;
               break;
             }
-            if ((current == 0) && stringAt(in, (current + 1), 5, list7) ||
-                stringAt(in, current + 1, 3, list8) && !stringAt(in, 0, 5,
+            if ((current == 0) && stringAt(in, length, (current + 1), 5, list7) ||
+                stringAt(in, length, current + 1, 3, list8) && !stringAt(in, length, 0, 5,
                 list9)) {
               MetaphAdd(primary, 'K' );
               current += 2;
               break;
             }
-            if (stringAt(in, 0, 4, list10) || stringAt(in, 0, 3, list11) ||
-                stringAt(in, current - 2, 6, list12) || stringAt(in, current
-                + 2, 1, list13) || (stringAt(in, current - 1, 1, list14) ||
-                (current == 0)) && stringAt(in, current + 2, 1, list15)) {
+            if (stringAt(in, length, 0, 4, list10) || stringAt(in, length, 0, 3, list11) ||
+                stringAt(in, length, current - 2, 6, list12) || stringAt(in, length, current
+                + 2, 1, list13) || (stringAt(in, length, current - 1, 1, list14) ||
+                (current == 0)) && stringAt(in, length, current + 2, 1, list15)) {
               MetaphAdd(primary, 'K');
             }
             else {
               if (current > 0) {
-                if (stringAt(in, 0, 2, list16))
+                if (stringAt(in, length, 0, 2, list16))
                   MetaphAdd(primary, 'K');
                 else
                   MetaphAdd(primary, 'X');
@@ -462,22 +523,22 @@ class DoubleMeta implements Transformator{
             current += 2;
             break;
           }
-          if (stringAt(in, current, 2, list17) && !stringAt(in, current, 4,
+          if (stringAt(in, length, current, 2, list17) && !stringAt(in, length, current, 4,
               list18)) {
             MetaphAdd(primary, 'S');
             current += 2;
             break;
           }
-          if (stringAt(in, current, 2, list19)) {
+          if (stringAt(in, length, current, 2, list19)) {
             MetaphAdd(primary, 'X');
             current += 2;
             break;
           }
-          if (stringAt(in, current, 2, list20) && !((current == 1) && in.charAt(0)
+          if (stringAt(in, length, current, 2, list20) && !((current == 1) && in[0]
               == 'M')) {
-            if (stringAt(in, current + 2, 1, list21) && !stringAt(in, current
+            if (stringAt(in, length, current + 2, 1, list21) && !stringAt(in, length, current
                 + 2, 2, list22)) {
-              if (((current == 1) && (in.charAt(current - 1) == 'A')) || stringAt(in,
+              if (((current == 1) && (in[current - 1] == 'A')) || stringAt(in, length,
                   (current - 1), 5, list23))
                 MetaphAdd(primary, "KS");
               else
@@ -491,29 +552,29 @@ class DoubleMeta implements Transformator{
               break;
             }
           }
-          if (stringAt(in, current, 2, list24)) {
+          if (stringAt(in, length, current, 2, list24)) {
             MetaphAdd(primary, 'K');
             current += 2;
             break;
           }
-          else if (stringAt(in, current, 2, list25)) {
+          else if (stringAt(in, length, current, 2, list25)) {
             MetaphAdd(primary, 'S');
             current += 2;
             break;
           }
           
           MetaphAdd(primary, 'K');
-          if (stringAt(in, current + 1, 2, list27))
+          if (stringAt(in, length, current + 1, 2, list27))
             current += 3;
-          else if (stringAt(in, current + 1, 1, list28) && !stringAt(in, current
+          else if (stringAt(in, length, current + 1, 1, list28) && !stringAt(in, length, current
               + 1, 2, list29))
             current += 2;
           else
             current += 1;
           break;
         case 'D':
-          if (stringAt(in, current, 2, list30)) {
-            if (stringAt(in, current + 2, 1, list31)) {
+          if (stringAt(in, length, current, 2, list30)) {
+            if (stringAt(in, length, current + 2, 1, list31)) {
               MetaphAdd(primary, 'J');
               current += 3;
               break;
@@ -525,21 +586,21 @@ class DoubleMeta implements Transformator{
             }
           }
           MetaphAdd(primary, 'T');
-          if (stringAt(in, current, 2, list32)) {
+          if (stringAt(in, length, current, 2, list32)) {
             current += 2;
           } else {
             current += 1;
           }
           break;
         case 'F':
-          if (in.charAt(current + 1) == 'F')
+          if (in[current + 1] == 'F')
             current += 2;
           else
             current += 1;
           MetaphAdd(primary, 'F');
           break;
         case 'G':
-          if (in.charAt(current + 1) == 'H') {
+          if (in[current + 1] == 'H') {
             if ((current > 0) && !isVowel(in, current - 1, length)) {
               MetaphAdd(primary, 'K');
               current += 2;
@@ -547,7 +608,7 @@ class DoubleMeta implements Transformator{
             }
             if (current < 3) {
               if (current == 0) {
-                if (in.charAt(current + 2) == 'I')
+                if (in[current + 2] == 'I')
                   MetaphAdd(primary, 'J');
                 else
                   MetaphAdd(primary, 'K');
@@ -555,32 +616,32 @@ class DoubleMeta implements Transformator{
                 break;
               }
             }
-            if ((current > 1) && stringAt(in, current - 2, 1, list33) || ((current > 2)
-                && stringAt(in, current - 3, 1, list34)) || ((current > 3) &&
-                stringAt(in, current - 4, 1, list35))) {
+            if ((current > 1) && stringAt(in, length, current - 2, 1, list33) || ((current > 2)
+                && stringAt(in, length, current - 3, 1, list34)) || ((current > 3) &&
+                stringAt(in, length, current - 4, 1, list35))) {
               current += 2;
               break;
             }
             else {
-              if ((current > 2) && (in.charAt(current - 1) == 'U') && stringAt(in,
+              if ((current > 2) && (in[current - 1] == 'U') && stringAt(in, length,
                   current - 3, 1, list36)) {
                 MetaphAdd(primary, 'F');
               }
               else {
-                if ((current > 0) && (in.charAt(current - 1) != 'I'))
+                if ((current > 0) && (in[current - 1] != 'I'))
                   MetaphAdd(primary, 'K');
               }
               current += 2;
               break;
             }
           }
-          if (in.charAt(current + 1) == 'N') {
+          if (in[current + 1] == 'N') {
             if ((current == 1) && isVowel(in, 0, length) && !isSlavoGermaic) {
               MetaphAdd(primary, "KN");
             }
             else {
-              if (!stringAt(in, current + 2, 2, list37) && (in.charAt(current
-                  + 1) != 'Y') && !isSlavoGermaic) {
+              if (!stringAt(in, length, current + 2, 2, list37) && (in[current
+                  + 1] != 'Y') && !isSlavoGermaic) {
                 MetaphAdd(primary, "N");
               }
               else {
@@ -590,28 +651,28 @@ class DoubleMeta implements Transformator{
             current += 2;
             break;
           }
-          if (stringAt(in, current + 1, 2, list38) && !isSlavoGermaic) {
+          if (stringAt(in, length, current + 1, 2, list38) && !isSlavoGermaic) {
             MetaphAdd(primary, "KL");
             current += 2;
             break;
           }
-          if ((current == 0) && ((in.charAt(current + 1) == 'Y') || stringAt(in,
+          if ((current == 0) && ((in[current + 1] == 'Y') || stringAt(in, length,
               current + 1, 2, list39))) {
             MetaphAdd(primary, 'K');
             current += 2;
             break;
           }
-          if ((stringAt(in, current + 1, 2, list40) || (in.charAt(current +
-              1) == 'Y')) && !stringAt(in, 0, 6, list41) && !stringAt(in, current
-              - 1, 1, list42) && !stringAt(in, current - 1, 3, list43)) {
+          if ((stringAt(in, length, current + 1, 2, list40) || (in[current +
+              1] == 'Y')) && !stringAt(in, length, 0, 6, list41) && !stringAt(in, length, current
+              - 1, 1, list42) && !stringAt(in, length, current - 1, 3, list43)) {
             MetaphAdd(primary, 'K');
             current += 2;
             break;
           }
-          if (stringAt(in, current + 1, 1, list44) || stringAt(in, current -
+          if (stringAt(in, length, current + 1, 1, list44) || stringAt(in, length, current -
               1, 4, list45)) {
-            if (stringAt(in, 0, 4, list46) || stringAt(in, 0, 3, list47) ||
-                stringAt(in, current + 1, 2, list48)) {
+            if (stringAt(in, length, 0, 4, list46) || stringAt(in, length, 0, 3, list47) ||
+                stringAt(in, length, current + 1, 2, list48)) {
               MetaphAdd(primary, 'K');
             }
             else {
@@ -620,7 +681,7 @@ class DoubleMeta implements Transformator{
             current += 2;
             break;
           }
-          if (in.charAt(current + 1) == 'G')
+          if (in[current + 1] == 'G')
             current += 2;
           else
             current += 1;
@@ -637,8 +698,8 @@ class DoubleMeta implements Transformator{
           }
           break;
         case 'J':
-          if (stringAt(in, current, 4, list50) || stringAt(in, 0, 4, list51)) {
-            if ((current == 0) && (in.charAt(current + 4) == ' ') || stringAt(in,
+          if (stringAt(in, length, current, 4, list50) || stringAt(in, length, 0, 4, list51)) {
+            if ((current == 0) && (in[current + 4] == ' ') || stringAt(in, length,
                 0, 4, list52)) {
               MetaphAdd(primary, 'H');
             }
@@ -648,12 +709,12 @@ class DoubleMeta implements Transformator{
             current += 1;
             break;
           }
-          if ((current == 0) && !stringAt(in, current, 4, list53)) {
+          if ((current == 0) && !stringAt(in, length, current, 4, list53)) {
             MetaphAdd(primary, 'J');
           }
           else {
-            if (isVowel(in, current - 1, length) && !isSlavoGermaic && ((in.charAt(current
-                + 1) == 'A') || in.charAt(current + 1) == 'O')) {
+            if (isVowel(in, current - 1, length) && !isSlavoGermaic && ((in[current
+                + 1] == 'A') || in[current + 1] == 'O')) {
               MetaphAdd(primary, 'J' );
             }
             else {
@@ -661,30 +722,30 @@ class DoubleMeta implements Transformator{
                 MetaphAdd(primary, 'J' );
               }
               else {
-                if (!stringAt(in, current + 1, 1, list54) && !stringAt(in,
+                if (!stringAt(in, length, current + 1, 1, list54) && !stringAt(in, length,
                     current - 1, 1, list55)) {
                   MetaphAdd(primary, 'J');
                 }
               }
             }
           }
-          if (in.charAt(current + 1) == 'J')
+          if (in[current + 1] == 'J')
             current += 2;
           else
             current += 1;
           break;
         case 'K':
-          if (in.charAt(current + 1) == 'K')
+          if (in[current + 1] == 'K')
             current += 2;
           else
             current += 1;
           MetaphAdd(primary, 'K');
           break;
         case 'L':
-          if (in.charAt(current + 1) == 'L') {
-            if (((current == (length - 3)) && stringAt(in, current - 1, 4,
-                list56)) || ((stringAt(in, last - 1, 2, list57) || stringAt(in,
-                last, 1, list58)) && stringAt(in, current - 1, 4, list59))) {
+          if (in[current + 1] == 'L') {
+            if (((current == (length - 3)) && stringAt(in, length, current - 1, 4,
+                list56)) || ((stringAt(in, length, last - 1, 2, list57) || stringAt(in, length,
+                last, 1, list58)) && stringAt(in, length, current - 1, 4, list59))) {
               MetaphAdd(primary, 'L' );
               current += 2;
               break;
@@ -696,16 +757,16 @@ class DoubleMeta implements Transformator{
           MetaphAdd(primary, 'L');
           break;
         case 'M':
-          if ((stringAt(in, current - 1, 3, list60) && (((current + 1) == last)
-              || stringAt(in, current + 2, 2, list61))) || (in.charAt(current
-              + 1) == 'M'))
+          if ((stringAt(in, length, current - 1, 3, list60) && (((current + 1) == last)
+              || stringAt(in, length, current + 2, 2, list61))) || (in[current
+              + 1] == 'M'))
             current += 2;
           else
             current += 1;
           MetaphAdd(primary, 'M');
           break;
         case 'N':
-          if (in.charAt(current + 1) == 'N')
+          if (in[current + 1] == 'N')
             current += 2;
           else
             current += 1;
@@ -716,72 +777,72 @@ class DoubleMeta implements Transformator{
           MetaphAdd(primary, 'N');
           break;
         case 'P':
-          if (in.charAt(current + 1) == 'N') {
+          if (in[current + 1] == 'N') {
             MetaphAdd(primary, 'F');
             current += 2;
             break;
           }
-          if (stringAt(in, current + 1, 1, list62))
+          if (stringAt(in, length, current + 1, 1, list62))
             current += 2;
           else
             current += 1;
           MetaphAdd(primary, 'P');
           break;
         case 'Q':
-          if (in.charAt(current + 1) == 'Q')
+          if (in[current + 1] == 'Q')
             current += 2;
           else
             current += 1;
           MetaphAdd(primary, 'K');
           break;
         case 'R':
-          if ((current == last) && !isSlavoGermaic && stringAt(in, current
-              - 2, 2, list63) && !stringAt(in, current - 4, 2, list64)) {
+          if ((current == last) && !isSlavoGermaic && stringAt(in, length, current
+              - 2, 2, list63) && !stringAt(in, length, current - 4, 2, list64)) {
 //            MetaphAdd(primary, "");
           } else
             MetaphAdd(primary, 'R');
-          if (in.charAt(current + 1) == 'R')
+          if (in[current + 1] == 'R')
             current += 2;
           else
             current += 1;
           break;
         case 'S':
-          if (stringAt(in, current - 1, 3, list65)) {
+          if (stringAt(in, length, current - 1, 3, list65)) {
             current += 1;
             break;
           }
-          if ((current == 0) && stringAt(in, current, 5, list66)) {
+          if ((current == 0) && stringAt(in, length, current, 5, list66)) {
             MetaphAdd(primary, 'X');
             current += 1;
             break;
           }
-          if (stringAt(in, current, 2, list67)) {
-            if (stringAt(in, current + 1, 4, list68))
+          if (stringAt(in, length, current, 2, list67)) {
+            if (stringAt(in, length, current + 1, 4, list68))
               MetaphAdd(primary, 'S');
             else
               MetaphAdd(primary, 'X');
             current += 2;
             break;
           }
-          if (stringAt(in, current, 3, list69) || stringAt(in, current, 4,
+          if (stringAt(in, length, current, 3, list69) || stringAt(in, length, current, 4,
               list70)) {
             MetaphAdd(primary, 'S');
             current += 3;
             break;
           }
-          if (((current == 0) && stringAt(in, current + 1, 1, list71)) || stringAt(in,
+          if (((current == 0) && stringAt(in, length, current + 1, 1, list71)) || stringAt(in, length,
               current + 1, 1, list72)) {
             MetaphAdd(primary, 'S');
-            if (stringAt(in, current + 1, 1, list73))
+            if (stringAt(in, length, current + 1, 1, list73))
               current += 2;
             else
               current += 1;
             break;
           }
-          if (stringAt(in, current, 2, list74)) {
-            if (in.charAt(current + 2) == 'H')
-              if (stringAt(in, current + 3, 2, list75)) {
-                if (stringAt(in, current + 3, 2, list76)) {
+          if (stringAt(in, length, current, 2, list74)) {
+            if (in[current + 2] == 'H')
+              if (stringAt(in, length, current + 3, 2, list75)) {
+                if (stringAt(in, length, current + 3, 2, list76)) {
                   MetaphAdd(primary, "X");
                 }
                 else {
@@ -795,7 +856,7 @@ class DoubleMeta implements Transformator{
                 current += 3;
                 break;
               }
-            if (stringAt(in, current + 2, 1, list77)) {
+            if (stringAt(in, length, current + 2, 1, list77)) {
               MetaphAdd(primary, 'S');
               current += 3;
               break;
@@ -804,30 +865,30 @@ class DoubleMeta implements Transformator{
             current += 3;
             break;
           }
-          if ((current == last) && stringAt(in, current - 2, 2, list78)) {
+          if ((current == last) && stringAt(in, length, current - 2, 2, list78)) {
             //MetaphAdd(primary, "");
           } else
             MetaphAdd(primary, 'S');
-          if (stringAt(in, current + 1, 1, list79))
+          if (stringAt(in, length, current + 1, 1, list79))
             current += 2;
           else
             current += 1;
           break;
         case 'T':
-          if (stringAt(in, current, 4, list80)) {
+          if (stringAt(in, length, current, 4, list80)) {
             MetaphAdd(primary, 'X');
             current += 3;
             break;
           }
-          if (stringAt(in, current, 3, list81)) {
+          if (stringAt(in, length, current, 3, list81)) {
             MetaphAdd(primary, 'X');
             current += 3;
             break;
           }
-          if (stringAt(in, current, 2, list82) || stringAt(in, current, 3,
+          if (stringAt(in, length, current, 2, list82) || stringAt(in, length, current, 3,
               list83)) {
-            if (stringAt(in, (current + 2), 2, list84) || stringAt(in, 0, 4,
-                list85) || stringAt(in, 0, 3, list86)) {
+            if (stringAt(in, length, (current + 2), 2, list84) || stringAt(in, length, 0, 4,
+                list85) || stringAt(in, length, 0, 3, list86)) {
               MetaphAdd(primary, 'T');
             }
             else {
@@ -836,7 +897,7 @@ class DoubleMeta implements Transformator{
             current += 2;
             break;
           }
-          if (stringAt(in, current + 1, 1, list87)) {
+          if (stringAt(in, length, current + 1, 1, list87)) {
             current += 2;
           }
           else
@@ -844,29 +905,29 @@ class DoubleMeta implements Transformator{
           MetaphAdd(primary, 'T');
           break;
         case 'V':
-          if (in.charAt(current + 1) == 'V')
+          if (in[current + 1] == 'V')
             current += 2;
           else
             current += 1;
           MetaphAdd(primary, 'F');
           break;
         case 'W':
-          if (stringAt(in, current, 2, list88)) {
+          if (stringAt(in, length, current, 2, list88)) {
             MetaphAdd(primary, 'R');
             current += 2;
             break;
           }
-          if ((current == 0) && (isVowel(in, current + 1, length) || stringAt(in, current,
+          if ((current == 0) && (isVowel(in, current + 1, length) || stringAt(in, length, current,
               2, list89))) {
             MetaphAdd(primary, 'A');
           }
-          if (((current == last) && isVowel(in, current - 1, length)) || stringAt(in, current
-              - 1, 5, list90) || stringAt(in, 0, 3, list91)) {
+          if (((current == last) && isVowel(in, current - 1, length)) || stringAt(in, length, current
+              - 1, 5, list90) || stringAt(in, length, 0, 3, list91)) {
             MetaphAdd(primary, 'F');
             current += 1;
             break;
           }
-          if (stringAt(in, current, 4, list92)) {
+          if (stringAt(in, length, current, 4, list92)) {
             MetaphAdd(primary, "TS");
             current += 4;
             break;
@@ -874,16 +935,16 @@ class DoubleMeta implements Transformator{
           current += 1;
           break;
         case 'X':
-          if (!((current == last) && (stringAt(in, current - 3, 3, list93) ||
-              stringAt(in, current - 2, 2, list94))))
+          if (!((current == last) && (stringAt(in, length, current - 3, 3, list93) ||
+              stringAt(in, length, current - 2, 2, list94))))
             MetaphAdd(primary, "KS");
-          if (stringAt(in, current + 1, 1, list95))
+          if (stringAt(in, length, current + 1, 1, list95))
             current += 2;
           else
             current += 1;
           break;
         case 'Z':
-          if (in.charAt(current + 1) == 'H') {
+          if (in[current + 1] == 'H') {
             MetaphAdd(primary, 'J');
             current += 2;
             break;
@@ -891,7 +952,7 @@ class DoubleMeta implements Transformator{
           else {
             MetaphAdd(primary, 'S');
           }
-          if (in.charAt(current + 1) == 'Z')
+          if (in[current + 1] == 'Z')
             current += 2;
           else
             current += 1;
@@ -900,7 +961,24 @@ class DoubleMeta implements Transformator{
           current += 1;
       }
     }
-    return  primary.toString();
+    return  in;
+  }
+
+  /** Returns true if the chars start .. end of word are all ASCII*/
+  private static boolean isAscii (CharSequence word, int start, int end) {
+    for (int i = start; i < end; i++)
+      if (word.charAt(i) > 127)
+        return  false;
+    return  true;
+  }
+
+  /**
+   * Returns true if String.toUpperCase maps ASCII letters differently in
+   * the default locale (dotted capital I in Turkish and Azeri).
+   */
+  private static boolean upperCaseNeedsLocale () {
+    String language = Locale.getDefault().getLanguage();
+    return  language.equals("tr") || language.equals("az");
   }
 }
 
@@ -10,36 +10,160 @@ public class EditDistance {
 
 	public static Configuration config = Configuration.getConfiguration();
 
+    /** Rows and char buffers reused by every call on the same thread*/
+    private static final ThreadLocal scratch = new ThreadLocal();
+
+    /** Larger than any real distance, small enough not to overflow when weighted*/
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+
     public static final int getDistance(String word, String similar) {
-        int a_size = word.length() + 1;
-        int b_size = similar.length() + 1;
-        int[][] matrix = new int[a_size][b_size];
-        matrix[0][0] = 0;
+        return getDistance(word, similar, INFINITY);
+    }
+
+    /**
+     * Returns the same weighted distance as getDistance(word, similar), or
+     * any value above maxDistance as soon as the distance is known to exceed
+     * it. Only the cells within maxDistance of the diagonal are computed and
+     * no memory is allocated once the thread's rows are big enough.
+     * <p>
+     * The EDIT_* weights are read from config's current snapshot.
+     * </p>
+     */
+    public static final int getDistance(String word, String similar, int maxDistance) {
+        Scratch s = scratch(word.length(), similar.length());
+        word.getChars(0, word.length(), s.word, 0);
+        similar.getChars(0, similar.length(), s.similar, 0);
+        return distance(s.word, word.length(), s.similar, similar.length(), maxDistance, config.getSnapshot(), s);
+    }
+
+    /**
+     * Scores the word against every candidate: out[i] is the distance to
+     * candidates[i].
+     */
+    public static final void getDistances(String word, char[][] candidates, int[] out) {
+        int[] lengths = new int[candidates.length];
+        for (int i = 0; i < candidates.length; i++)
+            lengths[i] = candidates[i].length;
+        getDistances(word, candidates, lengths, candidates.length, INFINITY, out);
+    }
+
+    /**
+     * Scores the word against the first count candidates, candidate i being
+     * the first lengths[i] chars of candidates[i]. Like getDistance(word,
+     * similar, maxDistance), out[i] is any value above maxDistance once the
+     * distance is known to exceed it.
+     * <p>
+     * The word is copied and the weights and rows are fetched once for the
+     * whole batch, and candidates whose length alone puts them over
+     * maxDistance are rejected before any row is computed.
+     * </p>
+     */
+    public static final void getDistances(String word, char[][] candidates, int[] lengths, int count,
+            int maxDistance, int[] out) {
+        ConfigurationSnapshot w = config.getSnapshot();
+        int maxLength = 0;
+        for (int i = 0; i < count; i++)
+            if (lengths[i] > maxLength) maxLength = lengths[i];
+        Scratch s = scratch(word.length(), maxLength);
+        char[] chars = s.word;
+        int length = word.length();
+        word.getChars(0, length, chars, 0);
+        int band = band(maxDistance, w);
+        for (int i = 0; i < count; i++) {
+            if (Math.abs(length - lengths[i]) > band)
+                out[i] = maxDistance + 1;
+            else
+                out[i] = distance(chars, length, candidates[i], lengths[i], maxDistance, w, s);
+        }
+    }
+
+    /**
+     * Any path to cell (i, j) makes at least |i - j| deletions, so cells
+     * further than this from the diagonal always exceed maxDistance.
+     */
+    private static int band(int maxDistance, ConfigurationSnapshot w) {
+        int minDel = Math.min(w.editDel1, w.editDel2);
+        return minDel > 0 ? maxDistance / minDel : Integer.MAX_VALUE;
+    }
+
+    private static int distance(char[] word, int wordLength, char[] similar, int similarLength,
+            int maxDistance, ConfigurationSnapshot w, Scratch s) {
+        int a_size = wordLength + 1;
+        int b_size = similarLength + 1;
+        int band = band(maxDistance, w);
+        if (Math.abs(a_size - b_size) > band)
+            return maxDistance + 1;
+        int[] before = s.before, previous = s.previous, current = s.current;
+
+        previous[0] = 0;
+        int previousMin = 0;
         for (int j = 1; j != b_size; ++j)
-            matrix[0][j] = matrix[0][j - 1] + config.getInteger(Configuration.EDIT_DEL1);
-        word = " " + word;
-        similar = " " + similar;
-        int te;
+            previous[j] = j <= band ? previous[j - 1] + w.editDel1 : INFINITY;
         for (int i = 1; i != a_size; ++i) {
-            matrix[i][0] = matrix[i - 1][0] + config.getInteger(Configuration.EDIT_DEL2);
-            for (int j = 1; j != b_size; ++j) {
-                if (word.charAt(i) == similar.charAt(j)) {
-                    matrix[i][j] = matrix[i - 1][j - 1];
+            int from = Math.max(1, i - band);
+            int to = (int) Math.min(b_size - 1, (long) i + band);
+            current[0] = i <= band ? previous[0] + w.editDel2 : INFINITY;
+            if (from > 1)
+                current[from - 1] = INFINITY;
+            int rowMin = current[0];
+            char ch = word[i - 1];
+            for (int j = from; j <= to; ++j) {
+                int d;
+                char other = similar[j - 1];
+                if (ch == other) {
+                    d = previous[j - 1];
                 } else {
-                    matrix[i][j] = config.getInteger(Configuration.EDIT_SUB) + matrix[i - 1][j - 1];
+                    d = w.editSub + previous[j - 1];
                     if (i != 1 && j != 1 &&
-                            word.charAt(i) == similar.charAt(j - 1) && word.charAt(i - 1) == similar.charAt(j)) {
-                        te = config.getInteger(Configuration.EDIT_SWAP) + matrix[i - 2][j - 2];
-                        if (te < matrix[i][j]) matrix[i][j] = te;
+                            ch == similar[j - 2] && word[i - 2] == other) {
+                        int te = w.editSwap + before[j - 2];
+                        if (te < d) d = te;
                     }
-                    te = config.getInteger(Configuration.EDIT_DEL1) + matrix[i - 1][j];
-                    if (te < matrix[i][j]) matrix[i][j] = te;
-                    te = config.getInteger(Configuration.EDIT_DEL2) + matrix[i][j - 1];
-                    if (te < matrix[i][j]) matrix[i][j] = te;
+                    int te = w.editDel1 + previous[j];
+                    if (te < d) d = te;
+                    te = w.editDel2 + current[j - 1];
+                    if (te < d) d = te;
                 }
+                if (d > INFINITY) d = INFINITY;
+                current[j] = d;
+                if (d < rowMin) rowMin = d;
             }
+            if (to < b_size - 1)
+                current[to + 1] = INFINITY;
+            // A swap reaches back two rows, so stop only once two rows are over
+            if (rowMin > maxDistance && previousMin > maxDistance)
+                return maxDistance + 1;
+            previousMin = rowMin;
+            int[] t = before;
+            before = previous;
+            previous = current;
+            current = t;
+        }
+        return previous[b_size - 1];
+    }
+
+    /** Returns this thread's scratch, big enough for the given lengths*/
+    private static Scratch scratch(int wordLength, int similarLength) {
+        Scratch s = (Scratch) scratch.get();
+        if (s == null || s.word.length < wordLength || s.previous.length <= similarLength) {
+            s = new Scratch(Math.max(wordLength, 32), Math.max(similarLength + 1, 32));
+            scratch.set(s);
+        }
+        return s;
+    }
+
+    /** The rows and char buffers of one thread*/
+    private static final class Scratch {
+        final char[] word, similar;
+        final int[] before, previous, current;
+
+        Scratch(int wordLength, int rowLength) {
+            word = new char[wordLength];
+            similar = new char[rowLength];
+            before = new int[rowLength];
+            previous = new int[rowLength];
+            current = new int[rowLength];
         }
-        return matrix[a_size - 1][b_size - 1];
     }
 
     public static void main(String[] args) throws Exception {
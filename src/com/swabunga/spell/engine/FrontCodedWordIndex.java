@@ -0,0 +1,479 @@
+package com.swabunga.spell.engine;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A read only WordIndex that keeps the words sorted and front coded.
+ * <p>
+ * Word ids are ordinals in sorted (String.compareTo) order. The words are
+ * stored in blocks of BLOCK_SIZE: every entry holds the number of chars it
+ * shares with the previous word of the block, the number of bytes of the
+ * rest and the rest itself, each char as a varint (one byte for ASCII, two
+ * for most other letters). The first word of a block shares nothing, so
+ * any word is decoded from its block start with at most BLOCK_SIZE - 1
+ * skips. No per word String, offset or hash table is kept: lookups binary
+ * search the first words of the blocks and scan one block, comparing the
+ * bytes in place without allocating, behind the same Bloom filter as the
+ * other indexes.
+ * </p>
+ * <p>
+ * The buckets are ranges of word ordinals grouped by code, in word list
+ * order. Words are only materialized as Strings when they are returned,
+ * e.g. as suggestions.
+ * </p>
+ * <p>
+ * The index is immutable, so any number of threads may read it at once.
+ * </p>
+ */
+final class FrontCodedWordIndex implements WordIndex
+{
+
+	/** Number of words per front coded block*/
+	static final int BLOCK_SIZE = 16;
+
+	/** The open-addressing code table holds code id + 1, 0 marks a free slot*/
+	private int[] codeTable;
+	/** The shared pool holding the chars of all codes*/
+	private char[] codePool;
+	/** Start offset of each code in codePool, codeStart[id + 1] is its end*/
+	private int[] codeStart;
+	/** Cached hash of each code, used to grow the table without rehashing chars*/
+	private int[] codeHash;
+	private int codeCount = 0;
+
+	/** Bucket of code id c is bucketWords[bucketStart[c] .. bucketStart[c + 1])*/
+	private final int[] bucketStart;
+	private final int[] bucketWords;
+
+	/** The front coded entries of all words, block after block*/
+	private final byte[] data;
+	/** Offset in data of the first entry of each block*/
+	private final int[] blockStart;
+	/** The Bloom filter rejecting most words that are not in the index, see WordTable*/
+	private final int[] bloom;
+	private final int wordCount;
+
+	/**
+	 * Builds the index over the words of a word list and their codes, which
+	 * are given in word list order.
+	 */
+	FrontCodedWordIndex(final String[] words, String[] codes) {
+		wordCount = words.length;
+		Integer[] order = new Integer[wordCount];
+		for (int i = 0; i < wordCount; i++)
+			order[i] = Integer.valueOf(i);
+		Arrays.sort(order, new Comparator() {
+			public int compare(Object a, Object b) {
+				return words[((Integer) a).intValue()].compareTo(words[((Integer) b).intValue()]);
+			}
+		});
+		int[] ordinal = new int[wordCount];
+		for (int i = 0; i < wordCount; i++)
+			ordinal[order[i].intValue()] = i;
+
+		// Front code the words in sorted order
+		blockStart = new int[(wordCount + BLOCK_SIZE - 1) / BLOCK_SIZE];
+		byte[] out = new byte[Math.max(16, wordCount * 6)];
+		int size = 0;
+		String previous = "";
+		for (int i = 0; i < wordCount; i++) {
+			String word = words[order[i].intValue()];
+			int shared = 0;
+			if (i % BLOCK_SIZE == 0) {
+				blockStart[i / BLOCK_SIZE] = size;
+			} else {
+				int max = Math.min(word.length(), previous.length());
+				while (shared < max && word.charAt(shared) == previous.charAt(shared))
+					shared++;
+			}
+			int bytes = 0;
+			for (int j = shared; j < word.length(); j++)
+				bytes += varintSize(word.charAt(j));
+			if (size + bytes + 10 > out.length)
+				out = Arrays.copyOf(out, Math.max(size + bytes + 10, out.length + (out.length >> 1)));
+			size = writeVarint(out, size, shared);
+			size = writeVarint(out, size, bytes);
+			for (int j = shared; j < word.length(); j++)
+				size = writeVarint(out, size, word.charAt(j));
+			previous = word;
+		}
+		data = Arrays.copyOf(out, size);
+		bloom = new int[WordTable.bloomSizeFor(WordTable.tableSizeFor(wordCount))];
+		for (int i = 0; i < wordCount; i++)
+			WordTable.bloomAdd(bloom, WordTable.hash(words[i], false));
+
+		// Intern the codes and group the ordinals by code in word list order
+		int expected = Math.max(16, wordCount);
+		codeTable = new int[WordTable.tableSizeFor(expected)];
+		codePool = new char[expected * 4];
+		codeStart = new int[expected + 1];
+		codeHash = new int[expected];
+		int[] wordCode = new int[wordCount];
+		for (int i = 0; i < wordCount; i++)
+			wordCode[i] = internCode(codes[i]);
+		codePool = Arrays.copyOf(codePool, codeStart[codeCount]);
+		codeStart = Arrays.copyOf(codeStart, codeCount + 1);
+		codeHash = Arrays.copyOf(codeHash, codeCount);
+		// The table was sized for one code per word, rehash it to fit
+		codeTable = new int[WordTable.tableSizeFor(codeCount)];
+		for (int c = 0; c < codeCount; c++)
+			insertCode(c);
+		bucketStart = new int[codeCount + 1];
+		for (int i = 0; i < wordCount; i++)
+			bucketStart[wordCode[i] + 1]++;
+		for (int c = 0; c < codeCount; c++)
+			bucketStart[c + 1] += bucketStart[c];
+		int[] fill = Arrays.copyOf(bucketStart, codeCount);
+		bucketWords = new int[wordCount];
+		for (int i = 0; i < wordCount; i++)
+			bucketWords[fill[wordCode[i]]++] = ordinal[i];
+	}
+
+	private static int varintSize(int value) {
+		return value < 0x80 ? 1 : value < 0x4000 ? 2 : 3;
+	}
+
+	/** Writes the value 7 bits at a time, low bits first, and returns the new offset*/
+	private static int writeVarint(byte[] out, int offset, int value) {
+		while (value >= 0x80) {
+			out[offset++] = (byte) (value | 0x80);
+			value >>>= 7;
+		}
+		out[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * Reads the varint at the offset and returns it in the high int with
+	 * the offset after it in the low int.
+	 */
+	private static long readVarint(byte[] in, int offset) {
+		int b = in[offset++];
+		int value = b & 0x7F;
+		for (int shift = 7; b < 0; shift += 7) {
+			b = in[offset++];
+			value |= (b & 0x7F) << shift;
+		}
+		return ((long) value << 32) | offset;
+	}
+
+	/** Returns the offset of the entry of the word*/
+	private int entry(int id) {
+		int offset = blockStart[id / BLOCK_SIZE];
+		for (int k = id % BLOCK_SIZE; k > 0; k--) {
+			long r = readVarint(data, offset);
+			r = readVarint(data, (int) r);
+			offset = (int) r + (int) (r >>> 32);
+		}
+		return offset;
+	}
+
+	/** Returns the id of the code, adding it to the table when it is new*/
+	private int internCode(String code) {
+		int h = WordTable.hash(code, false);
+		int mask = codeTable.length - 1;
+		for (int slot = h & mask;; slot = (slot + 1) & mask) {
+			int entry = codeTable[slot];
+			if (entry == 0)
+				break;
+			if (codeHash[entry - 1] == h && codeEquals(entry - 1, code))
+				return entry - 1;
+		}
+		int start = codeStart[codeCount];
+		int end = start + code.length();
+		if (end > codePool.length)
+			codePool = Arrays.copyOf(codePool, Math.max(end, codePool.length + (codePool.length >> 1)));
+		code.getChars(0, code.length(), codePool, start);
+		codeStart[codeCount + 1] = end;
+		codeHash[codeCount] = h;
+		int id = codeCount++;
+		insertCode(id);
+		return id;
+	}
+
+	/** Puts code id into the first free slot of its probe sequence*/
+	private void insertCode(int id) {
+		int mask = codeTable.length - 1;
+		int slot = codeHash[id] & mask;
+		while (codeTable[slot] != 0)
+			slot = (slot + 1) & mask;
+		codeTable[slot] = id + 1;
+	}
+
+	private boolean codeEquals(int id, CharSequence code) {
+		int start = codeStart[id];
+		int length = codeStart[id + 1] - start;
+		if (length != code.length())
+			return false;
+		for (int i = 0; i < length; i++)
+			if (codePool[start + i] != code.charAt(i))
+				return false;
+		return true;
+	}
+
+	public int findCode(CharSequence code) {
+		if (code == null)
+			return -1;
+		int h = WordTable.hash(code, false);
+		int mask = codeTable.length - 1;
+		for (int slot = h & mask;; slot = (slot + 1) & mask) {
+			int entry = codeTable[slot];
+			if (entry == 0)
+				return -1;
+			if (codeHash[entry - 1] == h && codeEquals(entry - 1, code))
+				return entry - 1;
+		}
+	}
+
+	public int bucketStart(int codeId) {
+		return bucketStart[codeId];
+	}
+
+	public int bucketEnd(int codeId) {
+		return bucketStart[codeId + 1];
+	}
+
+	public int bucketWord(int entry) {
+		return bucketWords[entry];
+	}
+
+	public boolean bucketContains(int codeId, CharSequence word, boolean lowerCase) {
+		int end = bucketEnd(codeId);
+		for (int i = bucketStart(codeId); i < end; i++) {
+			if (wordEquals(bucketWords[i], word, lowerCase))
+				return true;
+		}
+		return false;
+	}
+
+	private static char charAt(CharSequence word, int i, boolean lowerCase) {
+		char ch = word.charAt(i);
+		return lowerCase ? Character.toLowerCase(ch) : ch;
+	}
+
+	/**
+	 * Walks the block up to the word keeping the length of the prefix each
+	 * entry shares with the given word, so the chars are never decoded.
+	 */
+	private boolean wordEquals(int id, CharSequence word, boolean lowerCase) {
+		int offset = blockStart[id / BLOCK_SIZE];
+		int matched = 0, length = 0;
+		for (int k = id % BLOCK_SIZE; k >= 0; k--) {
+			long r = readVarint(data, offset);
+			int shared = (int) (r >>> 32);
+			r = readVarint(data, (int) r);
+			int suffix = (int) r;
+			int end = suffix + (int) (r >>> 32);
+			int p = suffix;
+			length = shared;
+			if (shared < matched) {
+				matched = shared;
+			} else if (shared == matched) {
+				while (p < end && matched < word.length()) {
+					r = readVarint(data, p);
+					if ((char) (r >>> 32) != charAt(word, matched, lowerCase))
+						break;
+					p = (int) r;
+					matched++;
+				}
+			}
+			for (p = suffix; p < end; p++)
+				if (data[p] >= 0)
+					length++;
+			offset = end;
+		}
+		return matched == length && length == word.length();
+	}
+
+	/**
+	 * Compares the first word of the block with the given word, returns a
+	 * negative number, zero or a positive number as it sorts before, equal
+	 * to or after the word.
+	 */
+	private int compareBlock(int block, CharSequence word, boolean lowerCase) {
+		long r = readVarint(data, blockStart[block]);
+		r = readVarint(data, (int) r);
+		int p = (int) r;
+		int end = p + (int) (r >>> 32);
+		int i = 0;
+		for (; p < end; i++) {
+			if (i == word.length())
+				return 1;
+			r = readVarint(data, p);
+			p = (int) r;
+			int diff = (char) (r >>> 32) - charAt(word, i, lowerCase);
+			if (diff != 0)
+				return diff;
+		}
+		return i - word.length();
+	}
+
+	/**
+	 * Returns true if the index holds the word. The block is found by binary
+	 * search over the first words of the blocks and then scanned keeping
+	 * the length of the prefix the current entry shares with the word.
+	 */
+	public boolean contains(CharSequence word, boolean lowerCase) {
+		if (!WordTable.bloomMightContain(bloom, WordTable.hash(word, lowerCase)))
+			return false;
+		int low = 0, high = blockStart.length - 1, block = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareBlock(mid, word, lowerCase);
+			if (cmp == 0)
+				return true;
+			if (cmp < 0) {
+				block = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if (block == -1)
+			return false;
+		int offset = blockStart[block];
+		int limit = block + 1 < blockStart.length ? blockStart[block + 1] : data.length;
+		// Every entry visited sorts before the word and shares matched chars with it
+		int matched = 0;
+		while (offset < limit) {
+			long r = readVarint(data, offset);
+			int shared = (int) (r >>> 32);
+			r = readVarint(data, (int) r);
+			int p = (int) r;
+			int end = p + (int) (r >>> 32);
+			if (shared < matched)
+				return false;
+			if (shared == matched) {
+				int i = matched;
+				int cmp = -1;
+				while (true) {
+					if (p == end) {
+						cmp = i == word.length() ? 0 : -1;
+						break;
+					}
+					if (i == word.length()) {
+						cmp = 1;
+						break;
+					}
+					r = readVarint(data, p);
+					p = (int) r;
+					char ch = (char) (r >>> 32);
+					char expected = charAt(word, i, lowerCase);
+					if (ch != expected) {
+						cmp = ch < expected ? -1 : 1;
+						break;
+					}
+					i++;
+				}
+				if (cmp == 0)
+					return true;
+				if (cmp > 0)
+					return false;
+				matched = i;
+			}
+			offset = end;
+		}
+		return false;
+	}
+
+	public String word(int id) {
+		char[] chars = new char[wordLength(id)];
+		getChars(id, chars);
+		return new String(chars);
+	}
+
+	public int wordLength(int id) {
+		long r = readVarint(data, entry(id));
+		int length = (int) (r >>> 32);
+		r = readVarint(data, (int) r);
+		int end = (int) r + (int) (r >>> 32);
+		for (int p = (int) r; p < end; p++)
+			if (data[p] >= 0)
+				length++;
+		return length;
+	}
+
+	/**
+	 * Decodes the block up to the word into dst. Chars of the entries before
+	 * it that lie beyond dst are dropped, the word never needs them.
+	 */
+	public void getChars(int id, char[] dst) {
+		int offset = blockStart[id / BLOCK_SIZE];
+		for (int k = id % BLOCK_SIZE; k >= 0; k--) {
+			long r = readVarint(data, offset);
+			int i = (int) (r >>> 32);
+			r = readVarint(data, (int) r);
+			int p = (int) r;
+			int end = p + (int) (r >>> 32);
+			for (; p < end && i < dst.length; i++) {
+				r = readVarint(data, p);
+				p = (int) r;
+				dst[i] = (char) (r >>> 32);
+			}
+			offset = end;
+		}
+	}
+
+	public int size() {
+		return wordCount;
+	}
+
+	public int codeCount() {
+		return codeCount;
+	}
+
+	public LinkedList words(CharSequence code) {
+		LinkedList result = new LinkedList();
+		int codeId = findCode(code);
+		if (codeId == -1)
+			return result;
+		int end = bucketEnd(codeId);
+		for (int i = bucketStart(codeId); i < end; i++)
+			result.add(word(bucketWords[i]));
+		return result;
+	}
+
+	/**
+	 * Returns an estimate in bytes of the heap held by the index arrays.
+	 */
+	long footprint() {
+		long ints = codeTable.length + codeStart.length + codeHash.length
+			+ bucketStart.length + bucketWords.length + blockStart.length + bloom.length;
+		long chars = codePool.length;
+		// 16 bytes of header per array
+		return ints * 4 + chars * 2 + data.length + 9 * 16;
+	}
+
+	/**
+	 * Prints the heap footprint of the bundled (or the given) word list held
+	 * in a PhoneticIndex and in a FrontCodedWordIndex.
+	 */
+	public static void main(String[] args) throws IOException {
+		String resource = args.length > 0 ? args[0] : "english";
+		Transformator tf = new DoubleMeta();
+		ArrayList lines = new ArrayList();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			FrontCodedWordIndex.class.getResourceAsStream("dictionary/" + resource)));
+		for (String line = in.readLine(); line != null; line = in.readLine())
+			lines.add(line);
+		in.close();
+		String[] words = (String[]) lines.toArray(new String[lines.size()]);
+		String[] codes = new String[words.length];
+		for (int i = 0; i < codes.length; i++)
+			codes[i] = tf.transform(words[i]);
+
+		PhoneticIndex index = new PhoneticIndex(codes.length);
+		for (int i = 0; i < codes.length; i++)
+			index.add(codes[i], words[i]);
+		index.trim();
+		FrontCodedWordIndex compact = new FrontCodedWordIndex(words, codes);
+		int chars = 0;
+		for (int i = 0; i < words.length; i++)
+			chars += words[i].length();
+
+		System.out.println("Words: " + words.length + " (" + chars + " chars), codes: " + compact.codeCount());
+		System.out.println("PhoneticIndex:      " + index.footprint() / 1024 + " KB");
+		System.out.println("FrontCodedWordIndex: " + compact.footprint() / 1024 + " KB (word bytes " + compact.data.length / 1024 + " KB)");
+	}
+}
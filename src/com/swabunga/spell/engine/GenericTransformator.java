@@ -6,6 +6,8 @@ import java.util.*;
 /** A Generic implementation of a transformator takes an aspell
  *  phonetics file and constructs some sort of transformationtable using
  *  the inner class Rule.
+ *  <p>The rules are never changed once they are read, so this class is
+ *  thread safe and one instance may code words from several threads.</p>
  *
  * @author Robert Gustavsson (robert@lindesign.se)
  */
@@ -14,29 +16,63 @@ public class GenericTransformator implements Transformator{
     public static final char STARTMULTI='(';
     public static final char ENDMULTI=')';
 
-    Object[] ruleArray=null;
+    // Chars below this have their own list of candidate rules.
+    private static final int DISPATCH_SIZE=256;
+
+    // Final, so the rules are safely published to every coding thread.
+    final Object[] ruleArray;
+    // The rules that can match at a position holding char c, in file order.
+    private final TransformationRule[][] dispatch;
+    // All the rules, for chars from DISPATCH_SIZE on.
+    private final TransformationRule[] allRules;
+    // Identifies the rules, see getRulesHash.
+    private final long rulesHash;
 
     public GenericTransformator(File phonetic)throws IOException{
-        buildRules(new BufferedReader(new FileReader(phonetic)));
+        BufferedReader in=new BufferedReader(new FileReader(phonetic));
+        try{
+            ruleArray=buildRules(in);
+        }finally{
+            in.close();
+        }
+        allRules=new TransformationRule[ruleArray.length];
+        System.arraycopy(ruleArray,0,allRules,0,ruleArray.length);
+        dispatch=buildDispatch(allRules);
+        long h=allRules.length;
+        for(int i=0;i<allRules.length;i++)
+            h=h*31+allRules[i].hash();
+        rulesHash=h;
+    }
+
+    /**
+    * Returns a hash of the rule table, so that a dictionary compiled with
+    * other rules (see DictionaryCompiler) is not used with these.
+    */
+    long getRulesHash(){
+        return rulesHash;
     }
 
     /**
     * Returns the phonetic code of the word.
+    * <p>The rules are tried in file order at every position, as before, but
+    * only those that can match the char at the position: a rule starting
+    * with a plain char fails at once on any other char, so it is only listed
+    * under its first char.</p>
     */
     public String transform(String word) {       
         if(ruleArray==null)
             return null;
         TransformationRule rule;
-        StringBuffer str=new StringBuffer(word.toUpperCase());
+        StringBuilder str=new StringBuilder(word.toUpperCase());
         int strLength=str.length();
         int startPos=0, add=1;
 
         while(startPos<strLength){
-            //System.out.println("StartPos:"+startPos);
             add=1;
-            for(int i=0;i<ruleArray.length;i++){
-                //System.out.println("Testing rule#:"+i);
-                rule=(TransformationRule)ruleArray[i];
+            char ch=str.charAt(startPos);
+            TransformationRule[] rules=ch<DISPATCH_SIZE ? dispatch[ch] : allRules;
+            for(int i=0;i<rules.length;i++){
+                rule=rules[i];
                 if(rule.startsWithExp() && startPos>0)
                     continue;
                 if(startPos+rule.lengthOfMatch()>=strLength)
@@ -46,7 +82,6 @@ public class GenericTransformator implements Transformator{
                     add=rule.getReplaceExp().length();
                     strLength-=rule.getTakeOut();
                     strLength+=add;
-                    //System.out.println("Replacing with rule#:"+i+" add="+add);
                     break;
                 }
             }
@@ -55,14 +90,33 @@ public class GenericTransformator implements Transformator{
         return str.toString();
     }
 
+    // Lists, for every char, the rules in file order that can match at a
+    // position holding that char. Rules starting with a multi group or with
+    // no match chars at all are listed under every char.
+    private static TransformationRule[][] buildDispatch(TransformationRule[] rules){
+        TransformationRule[][] table=new TransformationRule[DISPATCH_SIZE][];
+        int[] counts=new int[DISPATCH_SIZE];
+        for(int c=0;c<DISPATCH_SIZE;c++){
+            for(int i=0;i<rules.length;i++)
+                if(rules[i].canStartWith((char)c))
+                    counts[c]++;
+            table[c]=new TransformationRule[counts[c]];
+            int n=0;
+            for(int i=0;i<rules.length;i++)
+                if(rules[i].canStartWith((char)c))
+                    table[c][n++]=rules[i];
+        }
+        return table;
+    }
+
     // Used to build up the transformastion table.
-    private void buildRules(BufferedReader in)throws IOException{
+    private Object[] buildRules(BufferedReader in)throws IOException{
         String read=null;
         LinkedList ruleList=new LinkedList();
         while((read=in.readLine())!=null){
             buildRule(realTrimmer(read),ruleList);
         }
-        ruleArray=ruleList.toArray();
+        return ruleList.toArray();
     }
     
     // Here is where the real work of reading the phonetics file is done.
@@ -129,7 +183,7 @@ public class GenericTransformator implements Transformator{
     * Holds the match string and the replace string and all the rule attributes.
     * Is responsible for indicating matches.
     */
-    private class TransformationRule{
+    private static class TransformationRule{
 
         private String replace;
         private char[] match;
@@ -149,11 +203,30 @@ public class GenericTransformator implements Transformator{
             this.end=end;
         }
 
+        // Hashes every attribute of the rule.
+        long hash(){
+            long h=new String(match).hashCode();
+            h=h*31+replace.hashCode();
+            h=h*31+takeOut;
+            h=h*31+matchLength;
+            return h*4+(start ? 2 : 0)+(end ? 1 : 0);
+        }
+
+        /*
+        * Returns false only if the rule can never match at a position
+        * holding ch, that is if it starts with a plain char other than ch.
+        */
+        public boolean canStartWith(char ch){
+            if(match.length==0 || match[0]==STARTMULTI || match[0]==ENDMULTI)
+                return true;
+            return match[0]==ch;
+        }
+
         /*
         * Returns true if word from pos and forward matches the match string.
         * Precondition: wordPos+matchLength<word.length()
         */
-        public boolean isMatching(StringBuffer word, int wordPos){
+        public boolean isMatching(StringBuilder word, int wordPos){
             boolean matching=true, inMulti=false, multiMatch=false;
             char matchCh;
             
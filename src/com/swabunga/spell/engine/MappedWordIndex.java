@@ -0,0 +1,187 @@
+package com.swabunga.spell.engine;
+
+import java.nio.*;
+import java.util.LinkedList;
+
+/**
+ * A read only WordIndex that answers lookups straight from a precompiled
+ * dictionary buffer, usually a file mapped with FileChannel.map.
+ * <p>
+ * Nothing is copied onto the heap: the code table, the bucket ranges and
+ * the word chars are all views over the buffer, so the pages are shared
+ * through the OS page cache by every JVM mapping the same file. The words
+ * are stored bucket by bucket, so bucket entries are word ids.
+ * </p>
+ * <p>
+ * See DictionaryCompiler for the layout.
+ * </p>
+ */
+final class MappedWordIndex implements WordIndex
+{
+
+	private final int codeCount;
+	private final int wordCount;
+	private final IntBuffer codeTable;
+	private final IntBuffer codeHash;
+	private final IntBuffer codeStart;
+	private final IntBuffer bucketStart;
+	private final IntBuffer wordStart;
+	private final IntBuffer wordTable;
+	private final IntBuffer bloom;
+	private final CharBuffer codePool;
+	private final CharBuffer wordPool;
+
+	/**
+	 * Reads the index sections starting at the buffer's position.
+	 */
+	MappedWordIndex(ByteBuffer buffer) {
+		ByteBuffer in = buffer.slice().order(buffer.order());
+		codeCount = in.getInt();
+		wordCount = in.getInt();
+		int tableSize = in.getInt();
+		if (codeCount < 0 || wordCount < 0 || Integer.bitCount(tableSize) != 1 || tableSize < codeCount)
+			throw new IllegalArgumentException("Corrupt dictionary index header");
+		codeTable = ints(in, tableSize);
+		codeHash = ints(in, codeCount);
+		codeStart = ints(in, codeCount + 1);
+		bucketStart = ints(in, codeCount + 1);
+		wordStart = ints(in, wordCount + 1);
+		int wordTableSize = in.getInt();
+		if (Integer.bitCount(wordTableSize) != 1 || wordTableSize < wordCount)
+			throw new IllegalArgumentException("Corrupt dictionary word table");
+		wordTable = ints(in, wordTableSize);
+		bloom = ints(in, WordTable.bloomSizeFor(wordTableSize));
+		int codeChars = codeStart.get(codeCount);
+		codePool = chars(in, codeChars + (codeChars & 1));
+		wordPool = chars(in, wordStart.get(wordCount));
+	}
+
+	/** Returns an int view of the next count ints and skips over them*/
+	private static IntBuffer ints(ByteBuffer in, int count) {
+		ByteBuffer section = in.slice().order(in.order());
+		section.limit(count * 4);
+		in.position(in.position() + count * 4);
+		return section.asIntBuffer();
+	}
+
+	/** Returns a char view of the next count chars and skips over them*/
+	private static CharBuffer chars(ByteBuffer in, int count) {
+		ByteBuffer section = in.slice().order(in.order());
+		section.limit(count * 2);
+		in.position(in.position() + count * 2);
+		return section.asCharBuffer();
+	}
+
+	public int findCode(CharSequence code) {
+		if (code == null)
+			return -1;
+		int h = WordTable.hash(code, false);
+		int mask = codeTable.limit() - 1;
+		for (int slot = h & mask;; slot = (slot + 1) & mask) {
+			int entry = codeTable.get(slot);
+			if (entry == 0)
+				return -1;
+			if (codeHash.get(entry - 1) == h && codeEquals(entry - 1, code))
+				return entry - 1;
+		}
+	}
+
+	private boolean codeEquals(int id, CharSequence code) {
+		int start = codeStart.get(id);
+		int length = codeStart.get(id + 1) - start;
+		if (length != code.length())
+			return false;
+		for (int i = 0; i < length; i++)
+			if (codePool.get(start + i) != code.charAt(i))
+				return false;
+		return true;
+	}
+
+	public int bucketStart(int codeId) {
+		return bucketStart.get(codeId);
+	}
+
+	public int bucketEnd(int codeId) {
+		return bucketStart.get(codeId + 1);
+	}
+
+	public int bucketWord(int entry) {
+		return entry;
+	}
+
+	public boolean bucketContains(int codeId, CharSequence word, boolean lowerCase) {
+		int end = bucketEnd(codeId);
+		for (int id = bucketStart(codeId); id < end; id++) {
+			if (wordEquals(id, word, lowerCase))
+				return true;
+		}
+		return false;
+	}
+
+	public boolean contains(CharSequence word, boolean lowerCase) {
+		int h = WordTable.hash(word, lowerCase);
+		if (!WordTable.bloomMightContain(bloom, h))
+			return false;
+		int mask = wordTable.limit() - 1;
+		for (int slot = h & mask;; slot = (slot + 1) & mask) {
+			int entry = wordTable.get(slot);
+			if (entry == 0)
+				return false;
+			if (wordEquals(entry - 1, word, lowerCase))
+				return true;
+		}
+	}
+
+	private boolean wordEquals(int id, CharSequence word, boolean lowerCase) {
+		int start = wordStart.get(id);
+		int length = wordStart.get(id + 1) - start;
+		if (length != word.length())
+			return false;
+		for (int i = 0; i < length; i++) {
+			char ch = word.charAt(i);
+			if (lowerCase)
+				ch = Character.toLowerCase(ch);
+			if (wordPool.get(start + i) != ch)
+				return false;
+		}
+		return true;
+	}
+
+	public String word(int id) {
+		int start = wordStart.get(id);
+		char[] chars = new char[wordStart.get(id + 1) - start];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = wordPool.get(start + i);
+		return new String(chars);
+	}
+
+	public int wordLength(int id) {
+		return wordStart.get(id + 1) - wordStart.get(id);
+	}
+
+	public void getChars(int id, char[] dst) {
+		int start = wordStart.get(id);
+		int length = wordStart.get(id + 1) - start;
+		for (int i = 0; i < length; i++)
+			dst[i] = wordPool.get(start + i);
+	}
+
+	public int size() {
+		return wordCount;
+	}
+
+	public int codeCount() {
+		return codeCount;
+	}
+
+	public LinkedList words(CharSequence code) {
+		LinkedList result = new LinkedList();
+		int codeId = findCode(code);
+		if (codeId == -1)
+			return result;
+		int end = bucketEnd(codeId);
+		for (int id = bucketStart(codeId); id < end; id++)
+			result.add(word(id));
+		return result;
+	}
+}
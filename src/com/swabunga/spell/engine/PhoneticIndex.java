@@ -0,0 +1,481 @@
+package com.swabunga.spell.engine;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The PhoneticIndex class is the storage engine behind SpellDictionary.
+ * <p>
+ * Instead of one HashMap entry and one LinkedList node per word, every
+ * phonetic code is interned to an int id in an open-addressing table and
+ * every word is appended to a shared char pool. A bucket (all words sharing a
+ * code) is kept as an int range into an array of word ids, so the whole
+ * index is a handful of primitive arrays no matter how many words it holds.
+ * </p>
+ * <p>
+ * Words may be added at any time. The bucket ranges are rebuilt with a
+ * counting sort the next time a bucket is read after an addition.
+ * </p>
+ */
+final class PhoneticIndex implements WordIndex
+{
+
+	/** The open-addressing code table holds code id + 1, 0 marks a free slot*/
+	private int[] codeTable;
+	/** The shared pool holding the chars of all codes*/
+	private char[] codePool;
+	/** Start offset of each code in codePool, codeStart[id + 1] is its end*/
+	private int[] codeStart;
+	/** Cached hash of each code, used to grow the table without rehashing chars*/
+	private int[] codeHash;
+	private int codeCount = 0;
+
+	/** The shared pool holding the chars of all words*/
+	private char[] wordPool;
+	/** Start offset of each word in wordPool, wordStart[id + 1] is its end*/
+	private int[] wordStart;
+	/** The code id of each word*/
+	private int[] wordCode;
+	private int wordCount = 0;
+
+	/** The exact word table holds word id + 1, see WordTable*/
+	private int[] wordTable;
+	/** The Bloom filter in front of wordTable*/
+	private int[] bloom;
+
+	/** Bucket of code id c is bucketWords[bucketStart[c] .. bucketStart[c + 1])*/
+	private int[] bucketStart;
+	private int[] bucketWords;
+	/** True when words were added since the buckets were last built*/
+	private boolean dirty = true;
+
+	/**
+	 * Constructs an index sized for roughly the expected number of words.
+	 */
+	PhoneticIndex(int expectedWords) {
+		int words = Math.max(16, expectedWords);
+		codeTable = new int[WordTable.tableSizeFor(words)];
+		codePool = new char[words * 4];
+		codeStart = new int[words + 1];
+		codeHash = new int[words];
+		wordPool = new char[words * 8];
+		wordStart = new int[words + 1];
+		wordCode = new int[words];
+		wordTable = new int[WordTable.tableSizeFor(words)];
+		bloom = new int[WordTable.bloomSizeFor(wordTable.length)];
+	}
+
+	/**
+	 * Constructs a copy of the index that can be added to without changing
+	 * the original. The buckets are rebuilt on the first read.
+	 */
+	PhoneticIndex(PhoneticIndex other) {
+		codeTable = other.codeTable.clone();
+		codePool = other.codePool.clone();
+		codeStart = other.codeStart.clone();
+		codeHash = other.codeHash.clone();
+		codeCount = other.codeCount;
+		wordPool = other.wordPool.clone();
+		wordStart = other.wordStart.clone();
+		wordCode = other.wordCode.clone();
+		wordCount = other.wordCount;
+		wordTable = other.wordTable.clone();
+		bloom = other.bloom.clone();
+	}
+
+	/**
+	 * Adds a word under the given phonetic code and returns the new word id.
+	 */
+	int add(String code, CharSequence word) {
+		int codeId = internCode(code);
+		if (wordCount == wordCode.length) {
+			int capacity = wordCount + (wordCount >> 1) + 1;
+			wordCode = Arrays.copyOf(wordCode, capacity);
+			wordStart = Arrays.copyOf(wordStart, capacity + 1);
+		}
+		int start = wordStart[wordCount];
+		int end = start + word.length();
+		if (end > wordPool.length)
+			wordPool = Arrays.copyOf(wordPool, Math.max(end, wordPool.length + (wordPool.length >> 1)));
+		for (int i = 0; i < word.length(); i++)
+			wordPool[start + i] = word.charAt(i);
+		wordCode[wordCount] = codeId;
+		wordStart[wordCount + 1] = end;
+		dirty = true;
+		int id = wordCount++;
+		if (wordCount * 2 > wordTable.length) {
+			growWordTable();
+		} else {
+			int h = WordTable.hash(word, false);
+			WordTable.insert(wordTable, h, id);
+			WordTable.bloomAdd(bloom, h);
+		}
+		return id;
+	}
+
+	/**
+	 * Adds the words of the other index under their codes, in id order.
+	 */
+	void addAll(PhoneticIndex other) {
+		String[] codes = new String[other.codeCount];
+		for (int id = 0; id < other.wordCount; id++) {
+			int codeId = other.wordCode[id];
+			if (codes[codeId] == null)
+				codes[codeId] = new String(other.codePool, other.codeStart[codeId], other.codeStart[codeId + 1] - other.codeStart[codeId]);
+			add(codes[codeId], other.word(id));
+		}
+	}
+
+	/** Rebuilds the exact word table and its Bloom filter at twice the size*/
+	private void growWordTable() {
+		int[] table = new int[wordTable.length * 2];
+		int[] bits = new int[WordTable.bloomSizeFor(table.length)];
+		for (int id = 0; id < wordCount; id++) {
+			int h = WordTable.hash(wordPool, wordStart[id], wordStart[id + 1]);
+			WordTable.insert(table, h, id);
+			WordTable.bloomAdd(bits, h);
+		}
+		wordTable = table;
+		bloom = bits;
+	}
+
+	/**
+	 * Returns true if the index holds the word. When lowerCase is set the
+	 * word is looked up as if it had been converted to lower case first.
+	 */
+	public boolean contains(CharSequence word, boolean lowerCase) {
+		int h = WordTable.hash(word, lowerCase);
+		if (!WordTable.bloomMightContain(bloom, h))
+			return false;
+		int mask = wordTable.length - 1;
+		for (int slot = h & mask;; slot = (slot + 1) & mask) {
+			int entry = wordTable[slot];
+			if (entry == 0)
+				return false;
+			if (wordEquals(entry - 1, word, lowerCase))
+				return true;
+		}
+	}
+
+	/** Returns the id of the code, adding it to the table when it is new*/
+	private int internCode(String code) {
+		int h = WordTable.hash(code, false);
+		int mask = codeTable.length - 1;
+		for (int slot = h & mask;; slot = (slot + 1) & mask) {
+			int entry = codeTable[slot];
+			if (entry == 0)
+				break;
+			if (codeHash[entry - 1] == h && codeEquals(entry - 1, code))
+				return entry - 1;
+		}
+		if (codeCount == codeHash.length) {
+			int capacity = codeCount + (codeCount >> 1) + 1;
+			codeHash = Arrays.copyOf(codeHash, capacity);
+			codeStart = Arrays.copyOf(codeStart, capacity + 1);
+		}
+		int start = codeStart[codeCount];
+		int end = start + code.length();
+		if (end > codePool.length)
+			codePool = Arrays.copyOf(codePool, Math.max(end, codePool.length + (codePool.length >> 1)));
+		code.getChars(0, code.length(), codePool, start);
+		codeStart[codeCount + 1] = end;
+		codeHash[codeCount] = h;
+		int id = codeCount++;
+		if (codeCount * 2 > codeTable.length)
+			growCodeTable();
+		else
+			insertCode(codeTable, id);
+		return id;
+	}
+
+	/** Puts code id into the first free slot of its probe sequence*/
+	private void insertCode(int[] table, int id) {
+		int mask = table.length - 1;
+		int slot = codeHash[id] & mask;
+		while (table[slot] != 0)
+			slot = (slot + 1) & mask;
+		table[slot] = id + 1;
+	}
+
+	private void growCodeTable() {
+		int[] table = new int[codeTable.length * 2];
+		for (int id = 0; id < codeCount; id++)
+			insertCode(table, id);
+		codeTable = table;
+	}
+
+	private boolean codeEquals(int id, CharSequence code) {
+		int start = codeStart[id];
+		int length = codeStart[id + 1] - start;
+		if (length != code.length())
+			return false;
+		for (int i = 0; i < length; i++)
+			if (codePool[start + i] != code.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Returns the id of the code or -1 if no word has that code.
+	 */
+	public int findCode(CharSequence code) {
+		if (code == null)
+			return -1;
+		int h = WordTable.hash(code, false);
+		int mask = codeTable.length - 1;
+		for (int slot = h & mask;; slot = (slot + 1) & mask) {
+			int entry = codeTable[slot];
+			if (entry == 0)
+				return -1;
+			if (codeHash[entry - 1] == h && codeEquals(entry - 1, code))
+				return entry - 1;
+		}
+	}
+
+	/** Groups the word ids by code with a counting sort over wordCode*/
+	private void buildBuckets() {
+		int[] start = new int[codeCount + 1];
+		for (int w = 0; w < wordCount; w++)
+			start[wordCode[w] + 1]++;
+		for (int c = 0; c < codeCount; c++)
+			start[c + 1] += start[c];
+		int[] fill = Arrays.copyOf(start, codeCount);
+		int[] words = new int[wordCount];
+		for (int w = 0; w < wordCount; w++)
+			words[fill[wordCode[w]]++] = w;
+		bucketStart = start;
+		bucketWords = words;
+		dirty = false;
+	}
+
+	/**
+	 * Builds the buckets now if words were added, so that the following
+	 * reads do not modify the index and may run concurrently.
+	 */
+	void prepare() {
+		if (dirty)
+			buildBuckets();
+	}
+
+	/** Returns the index of the first entry of the code's bucket*/
+	public int bucketStart(int codeId) {
+		if (dirty)
+			buildBuckets();
+		return bucketStart[codeId];
+	}
+
+	/** Returns the index after the last entry of the code's bucket*/
+	public int bucketEnd(int codeId) {
+		if (dirty)
+			buildBuckets();
+		return bucketStart[codeId + 1];
+	}
+
+	/** Returns the word id stored at a bucket entry*/
+	public int bucketWord(int entry) {
+		return bucketWords[entry];
+	}
+
+	/**
+	 * Returns true if the code's bucket holds the word. When lowerCase is set
+	 * the word is compared as if it had been converted to lower case first.
+	 */
+	public boolean bucketContains(int codeId, CharSequence word, boolean lowerCase) {
+		int end = bucketEnd(codeId);
+		for (int i = bucketStart(codeId); i < end; i++) {
+			if (wordEquals(bucketWords[i], word, lowerCase))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean wordEquals(int id, CharSequence word, boolean lowerCase) {
+		int start = wordStart[id];
+		int length = wordStart[id + 1] - start;
+		if (length != word.length())
+			return false;
+		for (int i = 0; i < length; i++) {
+			char ch = word.charAt(i);
+			if (lowerCase)
+				ch = Character.toLowerCase(ch);
+			if (wordPool[start + i] != ch)
+				return false;
+		}
+		return true;
+	}
+
+	/** Materializes the word as a String*/
+	public String word(int id) {
+		return new String(wordPool, wordStart[id], wordStart[id + 1] - wordStart[id]);
+	}
+
+	public int wordLength(int id) {
+		return wordStart[id + 1] - wordStart[id];
+	}
+
+	public void getChars(int id, char[] dst) {
+		System.arraycopy(wordPool, wordStart[id], dst, 0, wordStart[id + 1] - wordStart[id]);
+	}
+
+	/** Returns the number of words in the index*/
+	public int size() {
+		return wordCount;
+	}
+
+	/** Returns the number of distinct codes in the index*/
+	public int codeCount() {
+		return codeCount;
+	}
+
+	/**
+	 * Returns a new list holding the words of the code's bucket.
+	 */
+	public LinkedList words(CharSequence code) {
+		LinkedList result = new LinkedList();
+		int codeId = findCode(code);
+		if (codeId == -1)
+			return result;
+		int end = bucketEnd(codeId);
+		for (int i = bucketStart(codeId); i < end; i++)
+			result.add(word(bucketWords[i]));
+		return result;
+	}
+
+	/**
+	 * Releases the spare capacity left over from growing the arrays and
+	 * builds the buckets. Called once a word list has been loaded.
+	 */
+	void trim() {
+		codePool = Arrays.copyOf(codePool, codeStart[codeCount]);
+		codeStart = Arrays.copyOf(codeStart, codeCount + 1);
+		codeHash = Arrays.copyOf(codeHash, codeCount);
+		wordPool = Arrays.copyOf(wordPool, wordStart[wordCount]);
+		wordStart = Arrays.copyOf(wordStart, wordCount + 1);
+		wordCode = Arrays.copyOf(wordCode, wordCount);
+		buildBuckets();
+	}
+
+	/**
+	 * Writes the index in the precompiled dictionary layout read by
+	 * MappedWordIndex. The words are written bucket by bucket so that a
+	 * bucket range is also a range of word ids in the file.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		if (dirty)
+			buildBuckets();
+		out.writeInt(codeCount);
+		out.writeInt(wordCount);
+		out.writeInt(codeTable.length);
+		for (int i = 0; i < codeTable.length; i++)
+			out.writeInt(codeTable[i]);
+		for (int c = 0; c < codeCount; c++)
+			out.writeInt(codeHash[c]);
+		for (int c = 0; c <= codeCount; c++)
+			out.writeInt(codeStart[c]);
+		for (int c = 0; c <= codeCount; c++)
+			out.writeInt(bucketStart[c]);
+		int offset = 0;
+		out.writeInt(offset);
+		for (int i = 0; i < wordCount; i++) {
+			int w = bucketWords[i];
+			offset += wordStart[w + 1] - wordStart[w];
+			out.writeInt(offset);
+		}
+		// The exact word table and Bloom filter, by word id in file order
+		int[] table = new int[wordTable.length];
+		int[] bits = new int[bloom.length];
+		for (int i = 0; i < wordCount; i++) {
+			int w = bucketWords[i];
+			int h = WordTable.hash(wordPool, wordStart[w], wordStart[w + 1]);
+			WordTable.insert(table, h, i);
+			WordTable.bloomAdd(bits, h);
+		}
+		out.writeInt(table.length);
+		for (int i = 0; i < table.length; i++)
+			out.writeInt(table[i]);
+		for (int i = 0; i < bits.length; i++)
+			out.writeInt(bits[i]);
+		int codeChars = codeStart[codeCount];
+		for (int i = 0; i < codeChars; i++)
+			out.writeChar(codePool[i]);
+		if ((codeChars & 1) != 0)
+			out.writeChar(0);
+		for (int i = 0; i < wordCount; i++) {
+			int w = bucketWords[i];
+			for (int j = wordStart[w]; j < wordStart[w + 1]; j++)
+				out.writeChar(wordPool[j]);
+		}
+	}
+
+	/**
+	 * Returns an estimate in bytes of the heap held by the index arrays.
+	 */
+	long footprint() {
+		if (dirty)
+			buildBuckets();
+		long ints = codeTable.length + codeStart.length + codeHash.length
+			+ wordStart.length + wordCode.length + bucketStart.length + bucketWords.length
+			+ wordTable.length + bloom.length;
+		long chars = codePool.length + wordPool.length;
+		// 16 bytes of header per array
+		return ints * 4 + chars * 2 + 11 * 16;
+	}
+
+	/** Returns the heap in use after a full collection*/
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException ex) {
+				break;
+			}
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * Prints the heap footprint of the bundled (or the given) word list held
+	 * the old way, as a HashMap of LinkedLists, and held in a PhoneticIndex.
+	 */
+	public static void main(String[] args) throws IOException {
+		String resource = args.length > 0 ? args[0] : "english";
+		Transformator tf = new DoubleMeta();
+		ArrayList lines = new ArrayList();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			PhoneticIndex.class.getResourceAsStream("dictionary/" + resource)));
+		for (String line = in.readLine(); line != null; line = in.readLine())
+			lines.add(line);
+		in.close();
+		String[] codes = new String[lines.size()];
+		for (int i = 0; i < codes.length; i++)
+			codes[i] = tf.transform((String) lines.get(i));
+
+		long base = usedHeap();
+		HashMap legacy = new HashMap(16 * 1024);
+		for (int i = 0; i < codes.length; i++) {
+			LinkedList list = (LinkedList) legacy.get(codes[i]);
+			if (list == null) {
+				list = new LinkedList();
+				legacy.put(new String(codes[i].toCharArray()), list);
+			}
+			list.add(new String(((String) lines.get(i)).toCharArray()));
+		}
+		long legacyBytes = usedHeap() - base;
+		int legacyCodes = legacy.size();
+		legacy = null;
+
+		base = usedHeap();
+		PhoneticIndex index = new PhoneticIndex(codes.length);
+		for (int i = 0; i < codes.length; i++)
+			index.add(codes[i], (String) lines.get(i));
+		index.trim();
+		long indexBytes = usedHeap() - base;
+
+		// lines and codes stay reachable until here so both measurements exclude them
+		System.out.println("Lines: " + lines.size() + ", words: " + codes.length + ", codes: " + legacyCodes + "/" + index.codeCount());
+		System.out.println("HashMap<String, LinkedList>: " + legacyBytes / 1024 + " KB");
+		System.out.println("PhoneticIndex:               " + indexBytes / 1024 + " KB (arrays " + index.footprint() / 1024 + " KB)");
+	}
+}
@@ -0,0 +1,87 @@
+package com.swabunga.spell.engine;
+
+import java.util.*;
+
+/**
+ * The words of a WordIndex in sorted (String.compareTo) order, for finding
+ * all words that start with a prefix.
+ * <p>
+ * The index is a permutation of the word ids: the words with a prefix are a
+ * range of it, found with one binary search, so a completion costs about
+ * log2(size) word comparisons plus the words returned. A
+ * FrontCodedWordIndex is sorted already and is searched by id directly.
+ * </p>
+ * <p>
+ * The index covers the words present when it was built and is not changed
+ * afterwards, so any number of threads may search it at once.
+ * </p>
+ */
+final class PrefixIndex
+{
+
+	private final WordIndex words;
+	/** The word ids in sorted order, null when the ids are sorted already*/
+	private final int[] sorted;
+	private final int size;
+
+	/**
+	 * Builds the index over all the words currently in the WordIndex.
+	 */
+	PrefixIndex(WordIndex words) {
+		this.words = words;
+		this.size = words.size();
+		if (words instanceof FrontCodedWordIndex) {
+			sorted = null;
+			return;
+		}
+		final String[] strings = new String[size];
+		for (int id = 0; id < size; id++)
+			strings[id] = words.word(id);
+		Integer[] order = new Integer[size];
+		for (int id = 0; id < size; id++)
+			order[id] = Integer.valueOf(id);
+		Arrays.sort(order, new Comparator() {
+			public int compare(Object a, Object b) {
+				return strings[((Integer) a).intValue()].compareTo(strings[((Integer) b).intValue()]);
+			}
+		});
+		sorted = new int[size];
+		for (int i = 0; i < size; i++)
+			sorted[i] = order[i].intValue();
+	}
+
+	/** Returns the WordIndex the index was built over*/
+	WordIndex getWords() {
+		return words;
+	}
+
+	private String wordAt(int position) {
+		return words.word(sorted == null ? position : sorted[position]);
+	}
+
+	/**
+	 * Adds the first words (in sorted order) that start with the prefix to
+	 * the result, at most limit of them. Duplicate words are added once.
+	 */
+	void complete(String prefix, int limit, Collection result) {
+		int low = 0, high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (wordAt(mid).compareTo(prefix) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		String previous = null;
+		for (int i = low, found = 0; i < size && found < limit; i++) {
+			String word = wordAt(i);
+			if (!word.startsWith(prefix))
+				break;
+			if (!word.equals(previous)) {
+				result.add(word);
+				found++;
+			}
+			previous = word;
+		}
+	}
+}
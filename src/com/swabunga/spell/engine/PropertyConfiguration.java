@@ -5,8 +5,13 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -16,14 +21,29 @@ import java.util.Properties;
  * Window>Preferences>Java>Templates.
  * To enable and disable the creation of type comments go to
  * Window>Preferences>Java>Code Generation.
+ *
+ * <p>setInteger and setBoolean only change the properties in memory and
+ * schedule a save. Changes made within SAVE_DELAY of each other are
+ * written together by one background write; flush() writes pending
+ * changes at once.</p>
  */
 public class PropertyConfiguration extends Configuration {
 
+	/** Milliseconds a change waits for others before the file is written*/
+	public static final long SAVE_DELAY = 1000;
+
+	/** Writes the properties files of all the configurations*/
+	private static ScheduledExecutorService saver;
+
 	public Properties prop;
 	public URL filename;
+
+	/** True while a save is scheduled and has not started yet*/
+	private boolean savePending = false;
 	
 	public PropertyConfiguration() {
 		prop = new Properties();
+		filename = getClass().getResource("configuration.properties");
 		try {
 /*
             //original initalization code
@@ -66,7 +86,8 @@ public class PropertyConfiguration extends Configuration {
 			string = "false";
 			
 		prop.setProperty(key, string);
-		save();
+		scheduleSave();
+		fireConfigurationChanged();
 	}
 
 	/**
@@ -74,14 +95,65 @@ public class PropertyConfiguration extends Configuration {
 	 */
 	public void setInteger(String key, int value) {
 		prop.setProperty(key,Integer.toString(value));
+		scheduleSave();
+		fireConfigurationChanged();
+	}
+
+	/** Saves the properties on the background thread after SAVE_DELAY*/
+	private void scheduleSave() {
+		synchronized (this) {
+			if (savePending)
+				return;
+			savePending = true;
+		}
+		getSaver().schedule(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, SAVE_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	private static synchronized ScheduledExecutorService getSaver() {
+		if (saver == null) {
+			saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "PropertyConfiguration saver");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return saver;
+	}
+
+	/**
+	 * Writes the changes still waiting for the background save now.
+	 */
+	public void flush() {
+		synchronized (this) {
+			if (!savePending)
+				return;
+			savePending = false;
+		}
 		save();
 	}
 	
+	/**
+	 * Writes the properties back to the file they were read from. Nothing
+	 * is written if they were read from a jar.
+	 */
 	public void save() {
+		if (filename == null || !"file".equals(filename.getProtocol()))
+			return;
 		try {
-			File file = new File(filename.getFile());
+			File file = new File(filename.toURI());
 			FileOutputStream fout = new FileOutputStream(file);
-			prop.store(fout,"HEADER");
+			try {
+				prop.store(fout,"HEADER");
+			} finally {
+				fout.close();
+			}
+		} catch (URISyntaxException e) {
 		} catch (FileNotFoundException e) {
 		} catch (IOException e) {
 		}
@@ -6,12 +6,28 @@
 package com.swabunga.spell.engine;
 
 import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * The SpellDictionary class holds the instance of the dictionary.
  * <p>
  * This class is thread safe. Derived classes should ensure that this preserved.
+ * Lookups never lock: they read an immutable snapshot of the words, and
+ * adding words publishes a new snapshot (see Snapshot), so words can be
+ * added while other threads check.
+ * </p>
+ * <p>
+ * A dictionary read from a word list file can follow changes made to the
+ * file while it is in use, see setWatching.
  * </p>
  * <p>
  * There are many open source dictionary files. For just a few see:
@@ -44,24 +60,81 @@ public class SpellDictionary
 			'R',
 			'0' };
 
-	/** A field indicating the initial hash map capacity (16KB) for the main
-	 *  dictionary hash map. Interested to see what the performance of a
-	 *  smaller initial capacity is like.
+	/** Suggestions are the words whose phonetic code is near the misspelt word's*/
+	public static final int SUGGEST_PHONETIC = 0;
+	/** Suggestions are the words within SPELL_MAXEDITS edits, found with a symmetric delete index*/
+	public static final int SUGGEST_SYMMETRIC_DELETE = 1;
+	/** Suggestions are the words under the threshold, found with a BK-tree*/
+	public static final int SUGGEST_BKTREE = 2;
+
+	/** Appended to the word list file name to name its suggestion cache file*/
+	public static final String SUGGESTION_CACHE_SUFFIX = ".suggestions";
+
+	/** A field indicating the initial word capacity (16K) for the main
+	 *  dictionary index. The index grows as needed and is trimmed once the
+	 *  word list has been read.
 	 */
 	private final static int INITIAL_CAPACITY = 16 * 1024;
 	/**
-	 * The hashmap that contains the word dictionary. The map is hashed on the doublemeta
-	 * code. The map entry contains a LinkedList of words that have the same double meta code.
+	 * A reload of the word list rebuilds the main dictionary when more than
+	 * one in REBUILD_DIVISOR of its words changed, and patches it otherwise.
 	 */
-	protected HashMap mainDictionary = new HashMap(INITIAL_CAPACITY);
+	private final static int REBUILD_DIVISOR = 8;
+	/**
+	 * The words of the dictionary as of the last change. Lookups read it
+	 * once and use that snapshot throughout; changes replace it.
+	 */
+	private volatile Snapshot snapshot = new Snapshot(new PhoneticIndex(16), null, null, 0);
+	/** Serializes the changes, which publish a new snapshot*/
+	private final Object changeLock = new Object();
+	/**
+	 * The symmetric delete index over the main dictionary, built the first
+	 * time it is needed.
+	 */
+	private volatile SymmetricDeleteIndex deleteIndex = null;
+	/**
+	 * The BK-tree over the main dictionary, built the first time it is needed.
+	 */
+	private volatile BKTree bkTree = null;
+	/**
+	 * The sorted word ids of the main dictionary for completions, built the
+	 * first time it is needed.
+	 */
+	private volatile PrefixIndex prefixIndex = null;
 	/**The reference to a Transformator, used to transform a word into it's.
 	 * phonetic code.
 	 */
 	private Transformator tf = null;
 
 
-	/** Holds the dictionary file for appending*/
-	private File dictFile = null;
+	/** The journal of the words added to the dictionary file*/
+	private volatile DictionaryJournal journal = null;
+	/** The word list file, or null if the words were not read from a file*/
+	private File wordListFile = null;
+	/**
+	 * The words added with addWord, addWords or from the journal, which a
+	 * reload of the word list keeps. Guarded by changeLock.
+	 */
+	private final HashSet userWords = new HashSet();
+	/** Reloads the words when the word list changes, or null. Guarded by changeLock*/
+	private DictionaryWatcher watcher = null;
+
+	/** The suggestions of the recently checked misspelt words*/
+	private final SuggestionCache suggestionCache = new SuggestionCache(SuggestionCache.DEFAULT_SIZE);
+	/** The file the suggestion cache is saved to at dispose, or null*/
+	private volatile File suggestionCacheFile = null;
+	/**
+	 * The dictionaries with a suggestion cache file, whose caches are saved
+	 * by a shutdown hook. Guarded by the class lock.
+	 */
+	private static final WeakHashMap cacheOwners = new WeakHashMap();
+	/** Set once the shutdown hook is registered, guarded by the class lock*/
+	private static boolean cacheHooked = false;
+
+	/** Set on the dictionaries DictionaryRegistry hands out, which only the registry closes*/
+	volatile boolean registered = false;
+	/** Set once dispose has torn the dictionary down, guarded by this*/
+	private boolean disposed = false;
 
 	/**
 	 * Dictionary Constructor.
@@ -78,8 +151,17 @@ public class SpellDictionary
 	public SpellDictionary(String wordListResource) throws IOException
 	{
 		tf = new DoubleMeta();
-		InputStream is = this.getClass().getResourceAsStream("dictionary/" + wordListResource);
-		createDictionary(new BufferedReader(new InputStreamReader(is)));
+		URL url = this.getClass().getResource("dictionary/" + wordListResource);
+		if (url == null)
+			throw new FileNotFoundException("dictionary/" + wordListResource);
+		createDictionary(new BufferedReader(new InputStreamReader(url.openStream())));
+		if ("file".equals(url.getProtocol())) {
+			// Not packed in a jar, so the list can be watched
+			try {
+				wordListFile = new File(url.toURI());
+			} catch (URISyntaxException ex) {
+			}
+		}
 	}
 
 	/**
@@ -88,7 +170,9 @@ public class SpellDictionary
 	public SpellDictionary(File wordList)
 		throws FileNotFoundException, IOException {
 		this(new FileReader(wordList));
-		dictFile = wordList;
+		wordListFile = wordList;
+		openJournal(wordList);
+		setSuggestionCacheFile(new File(wordList.getPath() + SUGGESTION_CACHE_SUFFIX));
 	}
 
 	/**
@@ -98,44 +182,357 @@ public class SpellDictionary
 	public SpellDictionary(File wordList, File phonetic)
 		throws FileNotFoundException, IOException {
 		tf = new GenericTransformator(phonetic);
-		dictFile = wordList;
 		createDictionary(new BufferedReader(new FileReader(wordList)));
+		wordListFile = wordList;
+		openJournal(wordList);
+		setSuggestionCacheFile(new File(wordList.getPath() + SUGGESTION_CACHE_SUFFIX));
+	}
+
+	/**
+	 * Dictionary constructor for a dictionary compiled with DictionaryCompiler.
+	 * <p>
+	 * The file is memory mapped and lookups are answered straight from the
+	 * mapped pages, so no phonetic coding is done at startup and the pages
+	 * are shared by every JVM on the host. Words added later are kept in
+	 * memory only.
+	 * </p>
+	 */
+	public SpellDictionary(FileChannel compiledDictionary) throws IOException {
+		tf = new DoubleMeta();
+		mapDictionary(compiledDictionary);
+	}
+
+	/**
+	* Dictionary constructor for a dictionary compiled with DictionaryCompiler
+	* from a word list and an aspell phonetic file.
+	*/
+	public SpellDictionary(FileChannel compiledDictionary, File phonetic)
+		throws FileNotFoundException, IOException {
+		tf = new GenericTransformator(phonetic);
+		mapDictionary(compiledDictionary);
+	}
+
+	/**
+	 * Maps the compiled dictionary read only and uses it as the main dictionary.
+	 */
+	protected void mapDictionary(FileChannel channel) throws IOException {
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		snapshot = new Snapshot(DictionaryCompiler.open(buffer, tf), null, null, snapshot.version + 1);
 	}
 
 	/**
 	 * Add a word permanantly to the dictionary (and the dictionary file).
-	 * <p>This needs to be made thread safe (synchronized)</p>
+	 * <p>The word is written to the dictionary file's journal in the
+	 * background, see DictionaryJournal.</p>
 	 */
 	public void addWord(String word) {
 		putWord(word);
-		if (dictFile == null)
+		DictionaryJournal j = journal;
+		if (j != null)
+			j.append(word);
+	}
+
+	/**
+	 * Adds words permanantly to the dictionary (and the dictionary file).
+	 * Equivalent to calling addWord for each word, but the words are
+	 * indexed under one lock and written to the file in one batch.
+	 */
+	public void addWords(Collection words) {
+		putWords(words);
+		DictionaryJournal j = journal;
+		if (j != null)
+			j.append(words);
+	}
+
+	/**
+	 * Saves the added words into the word list file itself: the list is
+	 * rewritten with the words of the journal appended and duplicate lines
+	 * dropped, and the journal is deleted. Until then the word list is never
+	 * changed, the added words are only kept in the journal. Does nothing
+	 * for a dictionary not read from a file.
+	 */
+	public void saveWordList() throws IOException {
+		DictionaryJournal j = journal;
+		if (j == null)
 			return;
 		try {
-			FileWriter w = new FileWriter(dictFile.toString(), true);
-			// Open with append.
-			w.write(word);
-			w.write("\n");
-			w.close();
-		} catch (IOException ex) {
-			System.out.println("Error writing to dictionary file");
+			j.mergeIntoWordList();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while saving " + wordListFile);
 		}
 	}
 
+	/**
+	 * Replays the journal left from an earlier session and keeps appending
+	 * added words to it.
+	 */
+	private void openJournal(File wordList) throws IOException {
+		DictionaryJournal j = new DictionaryJournal(wordList);
+		putWords(j.replay());
+		journal = j;
+	}
+
 	/**
 	 * Constructs the dictionary from a word list file.
 	 * <p>
 	 * Each word in the reader should be on a seperate line.
 	 * <p>
-	 * This is a very slow function. On my machine it takes quite a while to
-	 * load the data in. I suspect that we could speed this up quite alot.
+	 * The phonetic coding is by far the slowest part of loading, so the
+	 * words are coded in parallel on the common fork join pool.
 	 */
 	protected void createDictionary(BufferedReader in) throws IOException {
-		String line = "";
-		while (line != null) {
-			line = in.readLine();
-			if (line != null) {
-				line = new String(line.toCharArray());
-				putWord(line);
+		createDictionary(in, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructs the dictionary from a word list file, coding the words on
+	 * the given pool.
+	 * <p>
+	 * The list is read in full and split into chunks whose codes are computed
+	 * by separate tasks. The coded chunks are then merged into the index in
+	 * word list order, so the result is the same as a serial load.
+	 * </p>
+	 * <p>
+	 * The loaded words replace the main dictionary; words added earlier are
+	 * kept.
+	 * </p>
+	 * <p>
+	 * When SPELL_COMPACTWORDS is set the words are kept sorted and front
+	 * coded in a FrontCodedWordIndex, which takes well under half the heap
+	 * of a PhoneticIndex at the cost of slower word lookups.
+	 * </p>
+	 */
+	protected void createDictionary(BufferedReader in, ForkJoinPool pool) throws IOException {
+		ArrayList lines = new ArrayList(INITIAL_CAPACITY);
+		for (String line = in.readLine(); line != null; line = in.readLine())
+			lines.add(line);
+		WordIndex index = buildIndex(lines, pool);
+		synchronized (changeLock) {
+			Snapshot s = snapshot;
+			snapshot = new Snapshot(index, s.added, null, s.version + 1);
+		}
+	}
+
+	/**
+	 * Codes the words of the list on the pool and builds the main dictionary
+	 * index holding them, in list order.
+	 */
+	private WordIndex buildIndex(List lines, ForkJoinPool pool) {
+		String[] words = (String[]) lines.toArray(new String[lines.size()]);
+		String[] codes = new String[words.length];
+		pool.invoke(new CodeTask(tf, words, codes, 0, words.length));
+		WordIndex index;
+		if (Configuration.getConfiguration().getSnapshot().compactWords) {
+			index = new FrontCodedWordIndex(words, codes);
+		} else {
+			PhoneticIndex phonetic = new PhoneticIndex(Math.max(INITIAL_CAPACITY, words.length));
+			for (int i = 0; i < words.length; i++)
+				phonetic.add(codes[i], words[i]);
+			phonetic.trim();
+			index = phonetic;
+		}
+		return index;
+	}
+
+	/**
+	 * Brings the words in line with the word list file after it changed on
+	 * disk. Called on the DictionaryWatcher thread; lookups keep using the
+	 * old snapshot until the new one is published.
+	 * <p>
+	 * The lines are compared with the main dictionary. Listed words it lacks
+	 * are added beside it like added words, and words no longer listed are
+	 * hidden, so an edit costs one pass over the list and the phonetic
+	 * coding of the new words only. When the list was rewritten wholesale
+	 * (more than one in REBUILD_DIVISOR words changed) the main dictionary
+	 * is rebuilt instead, together with the derived indexes in use, before
+	 * it is published. Words added with addWord are kept either way.
+	 * </p>
+	 */
+	void reloadWordList() throws IOException {
+		File file = wordListFile;
+		if (file == null || !file.exists())
+			return;
+		ArrayList lines = new ArrayList(INITIAL_CAPACITY);
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			for (String line = in.readLine(); line != null; line = in.readLine())
+				lines.add(line);
+		} finally {
+			in.close();
+		}
+		LinkedHashSet listed = new LinkedHashSet(lines);
+		while (true) {
+			WordIndex main = snapshot.main;
+			HashSet removed = new HashSet();
+			for (int id = 0; id < main.size(); id++) {
+				String word = main.word(id);
+				if (!listed.contains(word))
+					removed.add(word);
+			}
+			ArrayList added = new ArrayList();
+			for (Iterator i = listed.iterator(); i.hasNext();) {
+				String word = (String) i.next();
+				if (!main.contains(word, false))
+					added.add(word);
+			}
+			WordIndex index = main;
+			PrefixIndex prefix = null;
+			BKTree tree = null;
+			SymmetricDeleteIndex deletes = null;
+			if (removed.size() + added.size() > main.size() / REBUILD_DIVISOR) {
+				index = buildIndex(lines, ForkJoinPool.commonPool());
+				removed.clear();
+				added.clear();
+				if (prefixIndex != null)
+					prefix = new PrefixIndex(index);
+				if (bkTree != null)
+					tree = new BKTree(index);
+				SymmetricDeleteIndex d = deleteIndex;
+				if (d != null)
+					deletes = new SymmetricDeleteIndex(index, d.getMaxEdits());
+			}
+			synchronized (changeLock) {
+				Snapshot s = snapshot;
+				if (s.main != main)
+					continue; // replaced meanwhile, compare again
+				// Keep the added words that are user words or still listed
+				ArrayList kept = new ArrayList();
+				boolean changed = index != main;
+				if (s.added != null) {
+					for (int id = 0; id < s.added.size(); id++) {
+						String word = s.added.word(id);
+						if ((userWords.contains(word) || listed.contains(word)) && !index.contains(word, false))
+							kept.add(word);
+						else
+							changed = true;
+					}
+				}
+				for (Iterator i = added.iterator(); i.hasNext();) {
+					String word = (String) i.next();
+					if (s.added != null && s.added.contains(word, false))
+						i.remove();
+				}
+				removed.removeAll(userWords);
+				changed |= !added.isEmpty() || !removed.equals(s.removed == null ? Collections.EMPTY_SET : s.removed);
+				if (!changed)
+					return; // e.g. the journal was merged into the list
+				PhoneticIndex overlay = new PhoneticIndex(16);
+				for (Iterator i = kept.iterator(); i.hasNext();) {
+					String word = (String) i.next();
+					overlay.add(getCode(word), word);
+				}
+				for (Iterator i = added.iterator(); i.hasNext();) {
+					String word = (String) i.next();
+					overlay.add(getCode(word), word);
+				}
+				synchronized (this) {
+					snapshot = new Snapshot(index, overlay.size() == 0 ? null : AddedWords.of(overlay),
+						removed.isEmpty() ? null : removed, s.version + 1);
+					if (prefix != null)
+						prefixIndex = prefix;
+					if (tree != null)
+						bkTree = tree;
+					if (deletes != null)
+						deleteIndex = deletes;
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Adds the words of the journal that are not in the dictionary yet,
+	 * such as words added by another process sharing the word list. Only
+	 * complete lines are read; a line still being written is taken at the
+	 * next change.
+	 */
+	void reloadJournal() throws IOException {
+		File file = wordListFile;
+		if (file == null)
+			return;
+		String text;
+		try {
+			text = new String(Files.readAllBytes(new File(file.getPath() + DictionaryJournal.JOURNAL_SUFFIX).toPath()));
+		} catch (NoSuchFileException ex) {
+			return; // merged into the list meanwhile
+		}
+		String[] lines = text.substring(0, text.lastIndexOf('\n') + 1).split("\r?\n");
+		Snapshot s = snapshot;
+		ArrayList words = new ArrayList();
+		for (int i = 0; i < lines.length; i++) {
+			String word = lines[i];
+			if (word.length() > 0 && !(isListed(s.main, s.removed, word) || s.added != null && s.added.contains(word, false)))
+				words.add(word);
+		}
+		putWords(words);
+	}
+
+	/**
+	 * Starts or stops following changes made to the word list file and its
+	 * journal while the dictionary is in use (see DictionaryWatcher). Does
+	 * nothing for a dictionary not read from a file. DictionaryRegistry
+	 * turns it on for the dictionaries it loads.
+	 */
+	public void setWatching(boolean watch) throws IOException {
+		synchronized (changeLock) {
+			if (watch && watcher == null && wordListFile != null) {
+				watcher = new DictionaryWatcher(this, wordListFile);
+			} else if (!watch && watcher != null) {
+				watcher.close();
+				watcher = null;
+			}
+		}
+	}
+
+	public boolean isWatching() {
+		synchronized (changeLock) {
+			return watcher != null;
+		}
+	}
+
+	/** Returns the watcher of the word list, or null*/
+	DictionaryWatcher getWatcher() {
+		synchronized (changeLock) {
+			return watcher;
+		}
+	}
+
+	/** Returns the journal of the added words, or null*/
+	DictionaryJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Computes the codes of a range of words, splitting it in halves until
+	 * the chunks are small enough to code directly.
+	 */
+	private static class CodeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		/** Number of words below which a chunk is coded on the current thread*/
+		private static final int CHUNK = 1024;
+
+		private final Transformator tf;
+		private final String[] words;
+		private final String[] codes;
+		private final int start, end;
+
+		CodeTask(Transformator tf, String[] words, String[] codes, int start, int end) {
+			this.tf = tf;
+			this.words = words;
+			this.codes = codes;
+			this.start = start;
+			this.end = end;
+		}
+
+		protected void compute() {
+			if (end - start <= CHUNK) {
+				for (int i = start; i < end; i++)
+					codes[i] = tf.transform(words[i]);
+			} else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new CodeTask(tf, words, codes, start, middle),
+					new CodeTask(tf, words, codes, middle, end));
 			}
 		}
 	}
@@ -151,14 +548,65 @@ public class SpellDictionary
 	 * Allocates a word in the dictionary
 	 */
 	protected void putWord(String word) {
-		String code = getCode(word);
-		LinkedList list = (LinkedList) mainDictionary.get(code);
-		if (list != null) {
-			list.add(word);
-		} else {
-			list = new LinkedList();
-			list.add(word);
-			mainDictionary.put(code, list);
+		putWords(Collections.singletonList(word));
+	}
+
+	/**
+	 * Adds the words as a new segment of the added words (see AddedWords)
+	 * and publishes it with a new snapshot, so the words added before are
+	 * not copied every time. Lookups running meanwhile keep using the old
+	 * snapshot. Words hidden by a reload of the word list are shown again.
+	 */
+	private void putWords(Collection words) {
+		if (words.isEmpty())
+			return;
+		synchronized (changeLock) {
+			Snapshot s = snapshot;
+			PhoneticIndex segment = new PhoneticIndex(words.size());
+			boolean shown = false;
+			for (Iterator i = words.iterator(); i.hasNext();) {
+				String word = (String) i.next();
+				segment.add(getCode(word), word);
+				shown |= s.removed != null && s.removed.contains(word);
+			}
+			userWords.addAll(words);
+			Set removed = s.removed;
+			if (shown) {
+				removed = new HashSet(removed);
+				removed.removeAll(words);
+			}
+			AddedWords added = s.added == null ? AddedWords.of(segment) : s.added.plus(segment);
+			snapshot = new Snapshot(s.main, added, removed == null || removed.isEmpty() ? null : removed, s.version + 1);
+		}
+	}
+
+	/**
+	 * The words of the dictionary at one point in time: the main dictionary,
+	 * which is never changed once loaded, the words added since and the main
+	 * dictionary words a reload of the word list found removed. None of them
+	 * is changed after the snapshot is published, so any number of threads
+	 * may read them without locking.
+	 */
+	private static final class Snapshot {
+		/**
+		 * The index that contains the word dictionary. The index is hashed on the doublemeta
+		 * code. Each code maps to the range of words that have the same double meta code.
+		 */
+		final WordIndex main;
+		/** The words added to the main dictionary, or null*/
+		final AddedWords added;
+		/** The main dictionary words that are no longer in the word list, or null*/
+		final Set removed;
+		/** Incremented by every change*/
+		final int version;
+
+		Snapshot(WordIndex main, AddedWords added, Set removed, int version) {
+			if (main instanceof PhoneticIndex)
+				((PhoneticIndex) main).prepare();
+			this.main = main;
+			this.added = added;
+			this.removed = removed;
+			this.version = version;
 		}
 	}
 
@@ -166,38 +614,164 @@ public class SpellDictionary
 	 * Returns a list of strings (words) for the code.
 	 */
 	public LinkedList getWords(String code) {
+		Snapshot s = snapshot;
 		//Check the main dictionary.
-		LinkedList mainDictResult = (LinkedList) mainDictionary.get(code);
-		if (mainDictResult == null)
-			return new LinkedList();
+		LinkedList mainDictResult = s.main.words(code);
+		if (s.removed != null)
+			mainDictResult.removeAll(s.removed);
+		if (s.added != null)
+			mainDictResult.addAll(s.added.words(code));
 		return mainDictResult;
 	}
 
 	/**
 	 * Returns true if the word is correctly spelled against the current word list.
+	 * <p>
+	 * The word is looked up in the exact word tables, so no phonetic code is
+	 * computed and nothing is allocated (unless a reload of the word list
+	 * removed words). The word may be a view into a larger text, such as
+	 * DocumentWordTokenizer.getCurrentWordChars.
+	 * </p>
 	 */
 	public boolean isCorrect(String word) {
-		LinkedList possible = getWords(getCode(word));
-		if (possible.contains(word))
+		return isCorrect((CharSequence) word);
+	}
+
+	/** Returns true if the word given as chars is correctly spelled, see isCorrect(String)*/
+	public boolean isCorrect(CharSequence word) {
+		Snapshot s = snapshot;
+		if (s.removed == null ? isCorrect(s.main, word) : isCorrect(s.main, s.removed, word.toString()))
+			return true;
+		return s.added != null && (s.added.contains(word, false) || s.added.contains(word, true));
+	}
+
+	/** Checks the word against an index, ignoring the removed words*/
+	private static boolean isCorrect(WordIndex index, Set removed, String word) {
+		if (isListed(index, removed, word))
+			return true;
+		return index.contains(word, true) && !removed.contains(word.toLowerCase());
+	}
+
+	private static boolean isListed(WordIndex index, Set removed, String word) {
+		return index.contains(word, false) && (removed == null || !removed.contains(word));
+	}
+
+	private static boolean isCorrect(WordIndex index, CharSequence word) {
+		if (index.contains(word, false))
 			return true;
 		//JMH should we always try the lowercase version. If I dont then capitalised
 		//words are always returned as incorrect.
-		else if (possible.contains(word.toLowerCase()))
+		else if (index.contains(word, true))
 			return true;
 		return false;
 	}
 
+	/**
+	 * Returns the words that start with the prefix, in sorted order, at most
+	 * limit of them. The prefix is matched as given, case included.
+	 * <p>
+	 * The main dictionary is searched through a sorted index built on the
+	 * first call (see prepareCompletions), so a completion takes a binary
+	 * search and is fast enough to run on every keystroke.
+	 * </p>
+	 */
+	public List completions(String prefix, int limit) {
+		Snapshot s = snapshot;
+		ArrayList result = new ArrayList();
+		if (limit <= 0)
+			return result;
+		if (s.removed == null) {
+			getPrefixIndex(s.main).complete(prefix, limit, result);
+		} else {
+			getPrefixIndex(s.main).complete(prefix, limit + s.removed.size(), result);
+			result.removeAll(s.removed);
+		}
+		if (s.added != null) {
+			int found = result.size();
+			for (int id = 0; id < s.added.size(); id++) {
+				String word = s.added.word(id);
+				if (word.startsWith(prefix) && !result.contains(word))
+					result.add(word);
+			}
+			if (result.size() > found)
+				Collections.sort(result);
+		}
+		while (result.size() > limit)
+			result.remove(result.size() - 1);
+		return result;
+	}
+
+	/**
+	 * Builds the index used by completions now, so that the first
+	 * completion does not pay for it. Callers loading the dictionary in the
+	 * background can call this right after.
+	 */
+	public void prepareCompletions() {
+		getPrefixIndex(snapshot.main);
+	}
+
 	/**
 	 * Returns a linked list of Word objects that are the suggestions to an
 	 * incorrect word.
 	 * <p>
+	 * The suggestions of recently seen words are answered from the
+	 * suggestion cache (see getSuggestionCache) until a word is added or a
+	 * setting changes.
+	 * </p>
 	 * @param word Suggestions for given mispelt word
 	 * @param threshold The lower boundary of similarity to mispelt word
 	 * @return LinkedList a List of suggestions
 	 */
 	public LinkedList getSuggestions(String word, int threshold) {
+		ConfigurationSnapshot config = Configuration.getConfiguration().getSnapshot();
+		return getSuggestions(word, threshold, config.maxSuggestions, config);
+	}
+
+	/**
+	 * Returns the best maxSuggestions suggestions to an incorrect word, best
+	 * first, each word once. Only that many are ever kept, so asking for a
+	 * few is cheaper than asking for all (maxSuggestions 0 or less).
+	 */
+	public LinkedList getSuggestions(String word, int threshold, int maxSuggestions) {
+		return getSuggestions(word, threshold, maxSuggestions, Configuration.getConfiguration().getSnapshot());
+	}
+
+	private LinkedList getSuggestions(String word, int threshold, int maxSuggestions, ConfigurationSnapshot config) {
+		long start = System.nanoTime();
+		Snapshot s = snapshot;
+		int engine = config.suggestionEngine;
+		LinkedList result = suggestionCache.get(word, engine, maxSuggestions, s.version, config);
+		if (result != null) {
+			suggestionCache.record(true, System.nanoTime() - start);
+			return result;
+		}
+		result = findSuggestions(s, word, config, engine, maxSuggestions);
+		suggestionCache.put(word, engine, maxSuggestions, s.version, config, result);
+		suggestionCache.record(false, System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Returns the suggestions found by the given SUGGEST_* engine, without
+	 * the cache.
+	 */
+	LinkedList getSuggestions(String word, int threshold, int engine, int maxSuggestions) {
+		return findSuggestions(snapshot, word, Configuration.getConfiguration().getSnapshot(), engine, maxSuggestions);
+	}
+
+	private LinkedList findSuggestions(Snapshot s, String word, ConfigurationSnapshot config, int engine, int maxSuggestions) {
+		TopSuggestions top = new TopSuggestions(maxSuggestions, s.removed);
+		if (engine == SUGGEST_SYMMETRIC_DELETE) {
+			getWordsWithinEdits(s, word, config, top);
+			return top.toList();
+		}
+		if (engine == SUGGEST_BKTREE) {
+			getWordsFromTree(s, word, config, top);
+			return top.toList();
+		}
 
 		HashSet nearmisscodes = new HashSet();
+		NearMissCoder coder = new NearMissCoder();
 		String code = getCode(word);
 
 		// add all words that have the same codeword
@@ -206,32 +780,35 @@ public class SpellDictionary
 		// do some tranformations to pick up more results
 		//interchange 
 		char[] charArray = word.toCharArray();
+		coder.setChars(charArray);
 		for (int i = 0; i < word.length() - 1; i++) {
 			char a = charArray[i];
 			char b = charArray[i + 1];
 			charArray[i] = b;
 			charArray[i + 1] = a;
-			nearmisscodes.add(getCode(new String(charArray)));
+			nearmisscodes.add(coder.getCode());
 			charArray[i] = a;
 			charArray[i + 1] = b;
 		}
 		//change
 		charArray = word.toCharArray();
+		coder.setChars(charArray);
 		for (int i = 0; i < word.length(); i++) {
 			char original = charArray[i];
 			for (int j = 0; j < replacelist.length; j++) {
 				charArray[i] = replacelist[j];
-				nearmisscodes.add(getCode(new String(charArray)));
+				nearmisscodes.add(coder.getCode());
 			}
 			charArray[i] = original;
 		}
 		//add
 		charArray = (word += " ").toCharArray();
+		coder.setChars(charArray);
 		int iy = charArray.length - 1;
 		while (true) {
 			for (int j = 0; j < replacelist.length; j++) {
 				charArray[iy] = replacelist[j];
-				nearmisscodes.add(getCode(new String(charArray)));
+				nearmisscodes.add(coder.getCode());
 			}
 			if (iy == 0)
 				break;
@@ -241,6 +818,7 @@ public class SpellDictionary
 		//delete
 		word = word.trim();
 		charArray = word.toCharArray();
+		coder.setChars(charArray);
 		char[] charArray2 = new char[charArray.length - 1];
 		for (int ix = 0; ix < charArray2.length; ix++) {
 			charArray2[ix] = charArray[ix];
@@ -249,7 +827,7 @@ public class SpellDictionary
 		a = charArray[charArray.length - 1];
 		int ii = charArray2.length;
 		while (true) {
-			nearmisscodes.add(getCode(new String(charArray)));
+			nearmisscodes.add(coder.getCode());
 			if (ii == 0)
 				break;
 			b = a;
@@ -258,42 +836,389 @@ public class SpellDictionary
 			--ii;
 		}
 
-		LinkedList wordlist = getWordsFromCode(word, nearmisscodes);
-		// We sort a linkedlist at the end instead of maintaining a
-		// continously sorted TreeSet because everytime you add a collection
-		// to a treeset it has to be resorted. It's better to do this operation
-		// once at the end.
-		Collections.sort( wordlist, new Word());
-		return wordlist;
+		// Only the best maxSuggestions are kept in a bounded heap instead of
+		// sorting every candidate at the end.
+		getWordsFromCode(s, word, code, nearmisscodes, config, top);
+		return top.toList();
 	}
 
-	private LinkedList getWordsFromCode(String word, Collection codes) {
-		Configuration config = Configuration.getConfiguration();
-		LinkedList result = new LinkedList();
+	/**
+	 * Offers the words of the codes' buckets that score under the threshold
+	 * to top. Once top is full only candidates that can still get in are
+	 * scored in full, and the scan stops when top is full of suggestions no
+	 * other word can beat: every word but the word itself (which has the
+	 * word's own code) is at least one edit away.
+	 */
+	private void getWordsFromCode(Snapshot s, String word, String ownCode, Collection codes, ConfigurationSnapshot config, TopSuggestions top) {
+		int threshold = config.threshold;
+		int minEdit = Math.min(Math.min(config.editDel1, config.editDel2), Math.min(config.editSwap, config.editSub));
+		boolean ownCodeDone = false;
+		CandidateBatch batch = new CandidateBatch();
 		for (Iterator i = codes.iterator(); i.hasNext();) {
 			String code = (String) i.next();
-			LinkedList simwordlist = getWords(code);
-			for (Iterator j = simwordlist.iterator(); j.hasNext();) {
-				String similar = (String) j.next();
-				int distance = EditDistance.getDistance(word, similar);
-				if (distance < config.getInteger(Configuration.SPELL_THRESHOLD)) {
-					Word w = new Word(similar, distance);
-					result.add(w);
+			addWordsFromCode(s.main, word, code, threshold, batch, top);
+			for (int j = 0; s.added != null && j < s.added.segmentCount(); j++)
+				addWordsFromCode(s.added.segment(j), word, code, threshold, batch, top);
+			ownCodeDone |= code.equals(ownCode);
+			if (ownCodeDone && top.isFull() && top.worstScore() <= minEdit)
+				break;
+		}
+	}
+
+	/**
+	 * Returns the words within SPELL_MAXEDITS edits of the word that also
+	 * score under the threshold, using the symmetric delete index.
+	 */
+	private void getWordsWithinEdits(Snapshot s, final String word, ConfigurationSnapshot config, final TopSuggestions top) {
+		int maxEdits = config.maxEdits;
+		final int threshold = config.threshold;
+		SymmetricDeleteIndex.Visitor visitor = new SymmetricDeleteIndex.Visitor() {
+			public void visit(String similar) {
+				int distance = EditDistance.getDistance(word, similar, Math.min(threshold - 1, top.admits()));
+				if (distance < threshold)
+					top.add(similar, distance);
+			}
+		};
+		SymmetricDeleteIndex index = getDeleteIndex(s.main, maxEdits);
+		index.candidates(word, visitor);
+		// Words added after the index was built are few, check them directly
+		String lower = word.toLowerCase();
+		for (int id = index.getIndexedWords(); id < s.main.size(); id++)
+			visitIfWithinEdits(s.main.word(id), lower, maxEdits, visitor);
+		if (s.added != null) {
+			for (int id = 0; id < s.added.size(); id++)
+				visitIfWithinEdits(s.added.word(id), lower, maxEdits, visitor);
+		}
+	}
+
+	private static void visitIfWithinEdits(String similar, String lower, int maxEdits, SymmetricDeleteIndex.Visitor visitor) {
+		if (SymmetricDeleteIndex.distance(lower, similar.toLowerCase(), maxEdits) <= maxEdits)
+			visitor.visit(similar);
+	}
+
+	/**
+	 * Returns the words that score under the threshold, using the BK-tree.
+	 */
+	private void getWordsFromTree(Snapshot s, String word, ConfigurationSnapshot config, TopSuggestions top) {
+		int threshold = config.threshold;
+		LinkedList found = new LinkedList();
+		getBKTree(s.main).search(word, threshold, found);
+		for (Iterator i = found.iterator(); i.hasNext();) {
+			Word w = (Word) i.next();
+			top.add(w.getWord(), w.getScore());
+		}
+		if (s.added != null) {
+			for (int id = 0; id < s.added.size(); id++) {
+				String similar = s.added.word(id);
+				int distance = EditDistance.getDistance(word, similar, Math.min(threshold - 1, top.admits()));
+				if (distance < threshold)
+					top.add(similar, distance);
+			}
+		}
+	}
+
+	/** Returns the cache answering getSuggestions, with its hit and miss statistics*/
+	public SuggestionCache getSuggestionCache() {
+		return suggestionCache;
+	}
+
+	/**
+	 * Sets the file the suggestion cache is saved to at dispose, and at
+	 * shutdown if the application exits without disposing the dictionary,
+	 * and loads the suggestions saved there by an earlier session, if they
+	 * were made with the same dictionary and edit weights.
+	 */
+	public void setSuggestionCacheFile(File file) {
+		suggestionCacheFile = file;
+		saveAtShutdown(this);
+		Snapshot s = snapshot;
+		ConfigurationSnapshot config = Configuration.getConfiguration().getSnapshot();
+		try {
+			suggestionCache.load(file, fingerprint(s, config), s.version, config);
+		} catch (IOException ex) {
+			System.out.println("Error reading suggestion cache " + file);
+		}
+	}
+
+	private static synchronized void saveAtShutdown(SpellDictionary dictionary) {
+		if (!cacheHooked) {
+			cacheHooked = true;
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					saveSuggestionCaches();
 				}
+			}, "Suggestion cache shutdown"));
+		}
+		cacheOwners.put(dictionary, null);
+	}
+
+	/** Saves the suggestion caches of the dictionaries still in memory, called at shutdown*/
+	private static void saveSuggestionCaches() {
+		Object[] dictionaries;
+		synchronized (SpellDictionary.class) {
+			dictionaries = cacheOwners.keySet().toArray();
+		}
+		for (int i = 0; i < dictionaries.length; i++) {
+			try {
+				((SpellDictionary) dictionaries[i]).saveSuggestionCache();
+			} catch (IOException ex) {
+				System.out.println("Error writing suggestion cache");
 			}
 		}
-		return result;
 	}
 
+	/**
+	 * Saves the suggestion cache to the file set with setSuggestionCacheFile.
+	 * Called by dispose and at shutdown.
+	 */
+	public void saveSuggestionCache() throws IOException {
+		File file = suggestionCacheFile;
+		Snapshot s = snapshot;
+		if (file == null || s == null)
+			return;
+		ConfigurationSnapshot config = Configuration.getConfiguration().getSnapshot();
+		suggestionCache.save(file, fingerprint(s, config), s.version, config);
+	}
+
+	/**
+	 * Identifies what the cached suggestions depend on: the words, the
+	 * phonetic coding, the threshold and the edit distance settings. The
+	 * words are summed in any order, so the fingerprint stays the same when
+	 * the journal has merged the added words into the word list.
+	 */
+	private long fingerprint(Snapshot s, ConfigurationSnapshot config) {
+		long words = 0, count = s.main.size();
+		for (int id = 0; id < s.main.size(); id++)
+			words += s.main.word(id).hashCode();
+		if (s.added != null) {
+			count += s.added.size();
+			for (int id = 0; id < s.added.size(); id++)
+				words += s.added.word(id).hashCode();
+		}
+		if (s.removed != null) {
+			count -= s.removed.size();
+			for (Iterator i = s.removed.iterator(); i.hasNext();)
+				words -= i.next().hashCode();
+		}
+		long h = count * 31 + words;
+		h = h * 31 + tf.getClass().getName().hashCode();
+		int[] settings = { config.editDel1, config.editDel2, config.editSwap, config.editSub, config.editSimilar,
+			config.editMin, config.editMax, config.maxEdits, config.threshold };
+		for (int i = 0; i < settings.length; i++)
+			h = h * 31 + settings[i];
+		return h;
+	}
+
+	/** Returns the prefix index over the main dictionary, building it if needed*/
+	private PrefixIndex getPrefixIndex(WordIndex main) {
+		PrefixIndex index = prefixIndex;
+		if (index != null && index.getWords() == main)
+			return index;
+		synchronized (this) {
+			if (prefixIndex == null || prefixIndex.getWords() != main)
+				prefixIndex = new PrefixIndex(main);
+			return prefixIndex;
+		}
+	}
+
+	/** Returns the BK-tree over the main dictionary, building it if needed*/
+	private BKTree getBKTree(WordIndex main) {
+		BKTree tree = bkTree;
+		if (tree != null && tree.getWords() == main)
+			return tree;
+		synchronized (this) {
+			if (bkTree == null || bkTree.getWords() != main)
+				bkTree = new BKTree(main);
+			return bkTree;
+		}
+	}
+
+	/** Returns the symmetric delete index for maxEdits, building it if needed*/
+	private SymmetricDeleteIndex getDeleteIndex(WordIndex main, int maxEdits) {
+		SymmetricDeleteIndex index = deleteIndex;
+		if (index != null && index.getWords() == main && index.getMaxEdits() == maxEdits)
+			return index;
+		synchronized (this) {
+			if (deleteIndex == null || deleteIndex.getWords() != main || deleteIndex.getMaxEdits() != maxEdits)
+				deleteIndex = new SymmetricDeleteIndex(main, maxEdits);
+			return deleteIndex;
+		}
+	}
+
+	/**
+	 * Codes the near misses getSuggestions makes in a char array. DoubleMeta
+	 * reads the array in place with reused buffers, so only the code String
+	 * is allocated; other transformators are given a String of the array.
+	 */
+	private final class NearMissCoder {
+		private char[] chars;
+		private CharBuffer view;
+		private char[] scratch;
+		private final StringBuilder code = new StringBuilder();
+
+		void setChars(char[] chars) {
+			this.chars = chars;
+			view = CharBuffer.wrap(chars);
+		}
+
+		String getCode() {
+			if (tf instanceof DoubleMeta) {
+				scratch = ((DoubleMeta) tf).transform(view, 0, chars.length, scratch, code);
+				return code.toString();
+			}
+			return SpellDictionary.this.getCode(new String(chars));
+		}
+	}
+
+	/**
+	 * Scores the bucket of the code as one batch and adds the words under
+	 * the threshold to the result. Only those words are materialized.
+	 */
+	private static void addWordsFromCode(WordIndex index, String word, String code, int threshold, CandidateBatch batch, TopSuggestions top) {
+		int codeId = index.findCode(code);
+		if (codeId == -1)
+			return;
+		batch.clear();
+		int end = index.bucketEnd(codeId);
+		for (int j = index.bucketStart(codeId); j < end; j++)
+			batch.add(index, index.bucketWord(j));
+		int maxDistance = Math.min(threshold - 1, top.admits());
+		EditDistance.getDistances(word, batch.chars, batch.lengths, batch.count, maxDistance, batch.distances);
+		for (int i = 0; i < batch.count; i++) {
+			if (batch.distances[i] <= maxDistance && batch.distances[i] <= top.admits())
+				top.add(index.word(batch.ids[i]), batch.distances[i]);
+		}
+	}
+
+	/**
+	 * The words of a bucket copied out for EditDistance.getDistances. The
+	 * arrays are reused from bucket to bucket of the same query.
+	 */
+	private static final class CandidateBatch {
+		char[][] chars = new char[16][];
+		int[] lengths = new int[16];
+		int[] ids = new int[16];
+		int[] distances = new int[16];
+		int count;
+
+		void clear() {
+			count = 0;
+		}
+
+		void add(WordIndex index, int id) {
+			if (count == ids.length) {
+				int capacity = count * 2;
+				chars = Arrays.copyOf(chars, capacity);
+				lengths = Arrays.copyOf(lengths, capacity);
+				ids = Arrays.copyOf(ids, capacity);
+				distances = Arrays.copyOf(distances, capacity);
+			}
+			int length = index.wordLength(id);
+			if (chars[count] == null || chars[count].length < length)
+				chars[count] = new char[Math.max(length, 16)];
+			index.getChars(id, chars[count]);
+			lengths[count] = length;
+			ids[count] = id;
+			count++;
+		}
+	}
+
+	/**
+	 * Times loading the bundled English word list with 1 up to the number of
+	 * available processors coding threads. With a phonetic file argument the
+	 * GenericTransformator is timed as well as DoubleMeta.
+	 */
+	public static void main(String[] args) throws IOException {
+		ArrayList transformators = new ArrayList();
+		transformators.add(new DoubleMeta());
+		if (args.length > 0)
+			transformators.add(new GenericTransformator(new File(args[0])));
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (Iterator i = transformators.iterator(); i.hasNext();) {
+			Transformator transformator = (Transformator) i.next();
+			for (int threads = 1; threads <= Math.max(cores, 4); threads *= 2) {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				long best = Long.MAX_VALUE;
+				for (int run = 0; run < 10; run++) {
+					SpellDictionary dictionary = new SpellDictionary(transformator);
+					long start = System.nanoTime();
+					InputStream is = SpellDictionary.class.getResourceAsStream("dictionary/english");
+					dictionary.createDictionary(new BufferedReader(new InputStreamReader(is)), pool);
+					best = Math.min(best, System.nanoTime() - start);
+					is.close();
+				}
+				pool.shutdown();
+				System.out.println(transformator.getClass().getName() + " threads=" + threads
+					+ " cores=" + cores + ": " + best / 1000000 + " ms");
+			}
+		}
+	}
+
+	/** Constructs an empty dictionary, used by main*/
+	private SpellDictionary(Transformator tf) {
+		this.tf = tf;
+	}
 
 	/** Added to free up the class memory and resources,
 	  * which otherwise trash the system quickly (code by Steve Birmingham)
+	  * <p>A dictionary shared through DictionaryRegistry is only released,
+	  * it stays usable for the other editors sharing it and the registry
+	  * closes it once it drops it. Calling dispose again does nothing.</p>
 	  */
 	public void dispose()
 	{
-		mainDictionary   = null;
+		try {
+			saveSuggestionCache();
+		} catch (IOException ex) {
+			System.out.println("Error writing suggestion cache");
+		}
+		if (DictionaryRegistry.release(this) || registered)
+			return;
+		synchronized (this) {
+			if (disposed)
+				return;
+			disposed = true;
+		}
+		close();
+		snapshot         = null;
+		deleteIndex      = null;
+		bkTree           = null;
+		prefixIndex      = null;
 		tf               = null;
-		dictFile         = null;
+	}
+
+	/**
+	 * Stops watching the word list and closes the journal, which forces the
+	 * added words to disk. The words are
+	 * still answered afterwards, words added later are kept in memory only.
+	 * Called by dispose and by DictionaryRegistry when it drops the
+	 * dictionary.
+	 */
+	void close() {
+		DictionaryWatcher w;
+		synchronized (changeLock) {
+			w = watcher;
+			watcher = null;
+		}
+		DictionaryJournal j = journal;
+		journal = null;
+		close(w, j);
+	}
+
+	/**
+	 * Closes a watcher and a journal, either may be null. Used by
+	 * DictionaryRegistry for a dictionary the collector has taken.
+	 */
+	static void close(DictionaryWatcher watcher, DictionaryJournal journal) {
+		if (watcher != null)
+			watcher.close();
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException ex) {
+				System.out.println("Error writing to dictionary file");
+			}
+		}
 	}
 
 }
@@ -0,0 +1,195 @@
+package com.swabunga.spell.engine;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A bounded least recently used cache from a misspelt word to its ranked
+ * suggestions, kept by SpellDictionary.
+ * <p>
+ * Entries are keyed by word, suggestion engine and number of suggestions;
+ * the engines take the threshold from the configuration. The cache is
+ * tied to one dictionary version and one configuration snapshot: as soon
+ * as either changes (a word was added, a setting changed) every entry is
+ * dropped. The cache can be saved to a small binary file and loaded in the
+ * next session; the file records a fingerprint of the dictionary, the
+ * threshold and the edit weights and is ignored when they no longer match.
+ * </p>
+ * <p>
+ * The hit and miss counts and the time spent computing the misses are
+ * kept, so the saving can be read from getHitRatio and getSavedNanos.
+ * </p>
+ * <p>
+ * This class is thread safe.
+ * </p>
+ */
+public final class SuggestionCache
+{
+
+	/** The number of entries kept by default*/
+	public static final int DEFAULT_SIZE = 1024;
+
+	/** The first int of every cache file ("JZSC")*/
+	private static final int MAGIC = 0x4A5A5343;
+	private static final int FILE_VERSION = 3;
+
+	private final int maxSize;
+	/** The entries in least recently used order, guarded by this*/
+	private final LinkedHashMap entries;
+	/** The dictionary version and configuration the entries belong to*/
+	private int version = -1;
+	private ConfigurationSnapshot config = null;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long hitNanos = 0;
+	private long missNanos = 0;
+
+	SuggestionCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > SuggestionCache.this.maxSize;
+			}
+		};
+	}
+
+	private static String key(String word, int engine, int maxSuggestions) {
+		return engine + ":" + maxSuggestions + ":" + word;
+	}
+
+	/** Drops the entries if they belong to another version or configuration, guarded by this*/
+	private void validate(int version, ConfigurationSnapshot config) {
+		if (version != this.version || config != this.config) {
+			entries.clear();
+			this.version = version;
+			this.config = config;
+		}
+	}
+
+	/**
+	 * Returns a new list holding the cached suggestions, or null if the word
+	 * is not cached for this dictionary version and configuration.
+	 */
+	synchronized LinkedList get(String word, int engine, int maxSuggestions, int version,
+		ConfigurationSnapshot config) {
+		validate(version, config);
+		Word[] suggestions = (Word[]) entries.get(key(word, engine, maxSuggestions));
+		if (suggestions == null)
+			return null;
+		return new LinkedList(Arrays.asList(suggestions));
+	}
+
+	/** Caches the suggestions computed for a miss*/
+	synchronized void put(String word, int engine, int maxSuggestions, int version,
+		ConfigurationSnapshot config, List suggestions) {
+		if (version < this.version)
+			return; // computed on a snapshot that has been replaced meanwhile
+		validate(version, config);
+		entries.put(key(word, engine, maxSuggestions), (Word[]) suggestions.toArray(new Word[suggestions.size()]));
+	}
+
+	/** Counts a lookup and the time it took*/
+	synchronized void record(boolean hit, long nanos) {
+		if (hit) {
+			hits++;
+			hitNanos += nanos;
+		} else {
+			misses++;
+			missNanos += nanos;
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/** Returns the share of lookups answered from the cache*/
+	public synchronized double getHitRatio() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	/**
+	 * Returns an estimate of the time the hits saved: what they would have
+	 * cost at the average miss time, less what they did cost. 0 until a
+	 * miss has been timed.
+	 */
+	public synchronized long getSavedNanos() {
+		if (misses == 0)
+			return 0;
+		return hits * (missNanos / misses) - hitNanos;
+	}
+
+	public synchronized String toString() {
+		return "SuggestionCache[" + entries.size() + " entries, " + hits + " hits, " + misses + " misses, saved "
+			+ getSavedNanos() / 1000000 + " ms]";
+	}
+
+	/**
+	 * Writes the entries that are still valid for the dictionary version and
+	 * configuration, least recently used first, to the file through a
+	 * temporary file.
+	 */
+	synchronized void save(File file, long fingerprint, int version, ConfigurationSnapshot config) throws IOException {
+		validate(version, config);
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeLong(fingerprint);
+			out.writeInt(entries.size());
+			for (Iterator i = entries.entrySet().iterator(); i.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				Word[] suggestions = (Word[]) entry.getValue();
+				out.writeUTF((String) entry.getKey());
+				out.writeInt(suggestions.length);
+				for (int j = 0; j < suggestions.length; j++) {
+					out.writeUTF(suggestions[j].getWord());
+					out.writeInt(suggestions[j].getScore());
+				}
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Reads the entries saved in the file for the current dictionary
+	 * version and configuration. Returns false, keeping the cache as it is,
+	 * if there is no file or it was saved for another fingerprint.
+	 */
+	synchronized boolean load(File file, long fingerprint, int version, ConfigurationSnapshot config) throws IOException {
+		if (!file.exists())
+			return false;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != FILE_VERSION || in.readLong() != fingerprint)
+				return false;
+			validate(version, config);
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				Word[] suggestions = new Word[in.readInt()];
+				for (int j = 0; j < suggestions.length; j++)
+					suggestions[j] = new Word(in.readUTF(), in.readInt());
+				entries.put(key, suggestions);
+			}
+			return true;
+		} catch (EOFException ex) {
+			throw new IOException("Truncated suggestion cache " + file);
+		} finally {
+			in.close();
+		}
+	}
+}
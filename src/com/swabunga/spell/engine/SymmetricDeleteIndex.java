@@ -0,0 +1,205 @@
+package com.swabunga.spell.engine;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A symmetric delete candidate index (the SymSpell scheme) over the words of
+ * a WordIndex.
+ * <p>
+ * Every word is reduced to the strings obtained by deleting up to maxEdits
+ * chars from its first PREFIX_LENGTH chars. Two words within maxEdits edits
+ * of each other share at least one such delete, so a query only has to
+ * generate its own deletes and look them up to find all its candidates,
+ * however long or badly misspelt it is. Candidates are then verified with
+ * a true (optimal string alignment) distance.
+ * </p>
+ * <p>
+ * The deletes are not stored, only their hashes: the index is a sorted
+ * table of delete hashes, each naming a range of word ids. A hash collision
+ * can only add a candidate, which the verification then drops. Words are
+ * compared in lower case.
+ * </p>
+ * <p>
+ * The index covers the words present when it was built; words added to the
+ * WordIndex later (ids from getIndexedWords() on) must be checked by the
+ * caller.
+ * </p>
+ */
+final class SymmetricDeleteIndex
+{
+
+	/** Only deletes of this many leading chars are indexed*/
+	static final int PREFIX_LENGTH = 7;
+
+	private final WordIndex words;
+	private final int maxEdits;
+	private final int indexedWords;
+	/** The most distinct deletes one prefix can have*/
+	private final int maxDeletes;
+	/** The distinct delete hashes, sorted*/
+	private final int[] keys;
+	/** The word ids of keys[i] are postings[starts[i] .. starts[i + 1])*/
+	private final int[] starts;
+	private final int[] postings;
+
+	/**
+	 * Builds the index over all the words currently in the WordIndex.
+	 */
+	SymmetricDeleteIndex(WordIndex words, int maxEdits) {
+		this.words = words;
+		this.maxEdits = maxEdits;
+		this.indexedWords = words.size();
+		int binomial = 1, total = 1;
+		for (int i = 1; i <= maxEdits && i <= PREFIX_LENGTH; i++) {
+			binomial = binomial * (PREFIX_LENGTH - i + 1) / i;
+			total += binomial;
+		}
+		maxDeletes = total;
+		// Collect (hash, word id) pairs, sort them and group them by hash
+		long[] pairs = new long[Math.max(16, indexedWords * 8)];
+		int count = 0;
+		int[] hashes = new int[maxDeletes];
+		char[] buffer = new char[PREFIX_LENGTH];
+		for (int id = 0; id < indexedWords; id++) {
+			String word = words.word(id);
+			int deletes = deletes(word, buffer, hashes);
+			if (count + deletes > pairs.length)
+				pairs = Arrays.copyOf(pairs, Math.max(count + deletes, pairs.length + (pairs.length >> 1)));
+			for (int i = 0; i < deletes; i++)
+				pairs[count++] = ((long) hashes[i] << 32) | id;
+		}
+		Arrays.sort(pairs, 0, count);
+		int distinct = 0;
+		for (int i = 0; i < count; i++)
+			if (i == 0 || (int) (pairs[i] >> 32) != (int) (pairs[i - 1] >> 32))
+				distinct++;
+		keys = new int[distinct];
+		starts = new int[distinct + 1];
+		postings = new int[count];
+		int key = -1;
+		for (int i = 0; i < count; i++) {
+			int h = (int) (pairs[i] >> 32);
+			if (key == -1 || h != keys[key]) {
+				keys[++key] = h;
+				starts[key] = i;
+			}
+			postings[i] = (int) pairs[i];
+		}
+		starts[distinct] = count;
+	}
+
+	/** Returns the WordIndex the index was built over*/
+	WordIndex getWords() {
+		return words;
+	}
+
+	/** Returns the most edits the index finds candidates for*/
+	int getMaxEdits() {
+		return maxEdits;
+	}
+
+	/** Returns the number of words covered by the index*/
+	int getIndexedWords() {
+		return indexedWords;
+	}
+
+	/**
+	 * Computes the distinct hashes of the lower case prefix of word and of
+	 * every string made by deleting up to maxEdits of its chars. Returns the
+	 * number of hashes written to the array, which holds maxDeletes hashes.
+	 */
+	private int deletes(CharSequence word, char[] buffer, int[] hashes) {
+		int length = Math.min(word.length(), PREFIX_LENGTH);
+		for (int i = 0; i < length; i++)
+			buffer[i] = Character.toLowerCase(word.charAt(i));
+		return deletes(buffer, length, 0, maxEdits, hashes, 0);
+	}
+
+	private static int deletes(char[] chars, int length, int from, int edits, int[] hashes, int count) {
+		count = addHash(hashes, count, WordTable.hash(chars, 0, length));
+		if (edits == 0 || length == 0)
+			return count;
+		for (int i = from; i < length; i++) {
+			char removed = chars[i];
+			System.arraycopy(chars, i + 1, chars, i, length - i - 1);
+			count = deletes(chars, length - 1, i, edits - 1, hashes, count);
+			System.arraycopy(chars, i, chars, i + 1, length - i - 1);
+			chars[i] = removed;
+		}
+		return count;
+	}
+
+	private static int addHash(int[] hashes, int count, int h) {
+		for (int i = 0; i < count; i++)
+			if (hashes[i] == h)
+				return count;
+		hashes[count++] = h;
+		return count;
+	}
+
+	/**
+	 * Calls back every indexed word within maxEdits edits (ignoring case) of
+	 * the word. Each word is reported once.
+	 */
+	void candidates(String word, Visitor visitor) {
+		int[] hashes = new int[maxDeletes];
+		char[] buffer = new char[PREFIX_LENGTH];
+		int deletes = deletes(word, buffer, hashes);
+		String lower = word.toLowerCase();
+		BitSet seen = new BitSet(indexedWords);
+		for (int d = 0; d < deletes; d++) {
+			int key = Arrays.binarySearch(keys, hashes[d]);
+			if (key < 0)
+				continue;
+			for (int p = starts[key]; p < starts[key + 1]; p++) {
+				int id = postings[p];
+				if (seen.get(id))
+					continue;
+				seen.set(id);
+				String candidate = words.word(id);
+				if (distance(lower, candidate.toLowerCase(), maxEdits) <= maxEdits)
+					visitor.visit(candidate);
+			}
+		}
+	}
+
+	/**
+	 * Returns the optimal string alignment distance of a and b, or max + 1
+	 * as soon as it is known to exceed max.
+	 */
+	static int distance(String a, String b, int max) {
+		int n = a.length(), m = b.length();
+		if (Math.abs(n - m) > max)
+			return max + 1;
+		int[] before = new int[m + 1];
+		int[] previous = new int[m + 1];
+		int[] current = new int[m + 1];
+		for (int j = 0; j <= m; j++)
+			previous[j] = j;
+		for (int i = 1; i <= n; i++) {
+			current[0] = i;
+			int rowMin = current[0];
+			for (int j = 1; j <= m; j++) {
+				int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				int d = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+				if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+					d = Math.min(d, before[j - 2] + 1);
+				current[j] = d;
+				rowMin = Math.min(rowMin, d);
+			}
+			if (rowMin > max)
+				return max + 1;
+			int[] t = before;
+			before = previous;
+			previous = current;
+			current = t;
+		}
+		return previous[m];
+	}
+
+	/** Receives the candidates found by the index*/
+	interface Visitor {
+		void visit(String candidate);
+	}
+}
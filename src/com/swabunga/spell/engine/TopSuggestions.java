@@ -0,0 +1,168 @@
+package com.swabunga.spell.engine;
+
+import java.util.*;
+
+/**
+ * Keeps the best suggestions offered so far, at most a fixed number of
+ * them, each word once.
+ * <p>
+ * The suggestions are held in a binary heap with the worst one on top, so
+ * a candidate is admitted or rejected in O(log K) and nothing beyond the
+ * best K is ever kept or sorted. Suggestions rank by score and then by the
+ * order they were offered in, so the result is the first K of what a
+ * stable sort of all the candidates would give.
+ * </p>
+ * <p>
+ * admits() tells the engines the highest score that can still get in,
+ * which they pass on to EditDistance as the distance bound.
+ * </p>
+ */
+final class TopSuggestions
+{
+
+	private final int limit;
+	/** Words that are never kept, or null*/
+	private final Set hidden;
+	/** The heap, worst suggestion at 0*/
+	private Word[] words;
+	/** The order each heap entry was offered in*/
+	private long[] order;
+	private int size = 0;
+	private long offered = 0;
+	/** The words in the heap, to offer each word once*/
+	private final HashMap byWord = new HashMap();
+
+	/**
+	 * Constructs an empty heap keeping at most limit suggestions, or all of
+	 * them if limit is 0 or less, and none of the hidden words (which may be
+	 * null).
+	 */
+	TopSuggestions(int limit, Set hidden) {
+		this.limit = limit > 0 ? limit : Integer.MAX_VALUE;
+		this.hidden = hidden;
+		int capacity = Math.min(this.limit, 16);
+		words = new Word[capacity];
+		order = new long[capacity];
+	}
+
+	boolean isFull() {
+		return size == limit;
+	}
+
+	/** Returns the highest score a new suggestion may have to be kept*/
+	int admits() {
+		return isFull() ? words[0].getScore() - 1 : Integer.MAX_VALUE;
+	}
+
+	/** Returns the score of the worst suggestion kept*/
+	int worstScore() {
+		return size == 0 ? Integer.MAX_VALUE : words[0].getScore();
+	}
+
+	/**
+	 * Offers a suggestion. It is kept if the heap is not full or it is
+	 * better than the worst one kept, which then goes. A word already kept
+	 * is only replaced by a better score for it.
+	 */
+	void add(String word, int score) {
+		long sequence = offered++;
+		if (isFull() && score >= words[0].getScore())
+			return;
+		if (hidden != null && hidden.contains(word))
+			return;
+		Word previous = (Word) byWord.get(word);
+		if (previous != null) {
+			if (score >= previous.getScore())
+				return;
+			remove(previous);
+		}
+		Word w = new Word(word, score);
+		if (size == limit) {
+			byWord.remove(words[0].getWord());
+			words[0] = w;
+			order[0] = sequence;
+			siftDown(0);
+		} else {
+			if (size == words.length) {
+				int capacity = (int) Math.min((long) limit, size * 2L);
+				words = Arrays.copyOf(words, capacity);
+				order = Arrays.copyOf(order, capacity);
+			}
+			words[size] = w;
+			order[size] = sequence;
+			siftUp(size++);
+		}
+		byWord.put(word, w);
+	}
+
+	/** Removes a kept suggestion, only used when a word comes again with a better score*/
+	private void remove(Word w) {
+		int i = 0;
+		while (words[i] != w)
+			i++;
+		byWord.remove(w.getWord());
+		size--;
+		if (i == size)
+			return;
+		words[i] = words[size];
+		order[i] = order[size];
+		siftDown(i);
+		siftUp(i);
+	}
+
+	/** True if entry i ranks after (is worse than) entry j*/
+	private boolean worse(int i, int j) {
+		int a = words[i].getScore(), b = words[j].getScore();
+		return a > b || (a == b && order[i] > order[j]);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!worse(i, parent))
+				break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && worse(child + 1, child))
+				child++;
+			if (!worse(child, i))
+				break;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		Word w = words[i];
+		words[i] = words[j];
+		words[j] = w;
+		long o = order[i];
+		order[i] = order[j];
+		order[j] = o;
+	}
+
+	/** Returns the kept suggestions, best first*/
+	LinkedList toList() {
+		Integer[] ranked = new Integer[size];
+		for (int i = 0; i < size; i++)
+			ranked[i] = Integer.valueOf(i);
+		Arrays.sort(ranked, new Comparator() {
+			public int compare(Object a, Object b) {
+				int i = ((Integer) a).intValue(), j = ((Integer) b).intValue();
+				return worse(i, j) ? 1 : worse(j, i) ? -1 : 0;
+			}
+		});
+		LinkedList result = new LinkedList();
+		for (int i = 0; i < size; i++)
+			result.add(words[ranked[i].intValue()]);
+		return result;
+	}
+}
@@ -0,0 +1,58 @@
+package com.swabunga.spell.engine;
+
+import java.util.LinkedList;
+
+/**
+ * The lookups SpellDictionary needs from its word storage.
+ * <p>
+ * Words are grouped in buckets by phonetic code. Codes and words are
+ * addressed by int ids and a bucket is a range of entries, each entry naming
+ * one word id.
+ * </p>
+ */
+interface WordIndex
+{
+
+	/** Returns the id of the code or -1 if no word has that code*/
+	public int findCode(CharSequence code);
+
+	/** Returns the index of the first entry of the code's bucket*/
+	public int bucketStart(int codeId);
+
+	/** Returns the index after the last entry of the code's bucket*/
+	public int bucketEnd(int codeId);
+
+	/** Returns the word id stored at a bucket entry*/
+	public int bucketWord(int entry);
+
+	/**
+	 * Returns true if the code's bucket holds the word. When lowerCase is set
+	 * the word is compared as if it had been converted to lower case first.
+	 */
+	public boolean bucketContains(int codeId, CharSequence word, boolean lowerCase);
+
+	/**
+	 * Returns true if the index holds the word. When lowerCase is set the
+	 * word is looked up as if it had been converted to lower case first.
+	 * No phonetic code is needed and nothing is allocated.
+	 */
+	public boolean contains(CharSequence word, boolean lowerCase);
+
+	/** Materializes the word as a String*/
+	public String word(int id);
+
+	/** Returns the number of chars of the word*/
+	public int wordLength(int id);
+
+	/** Copies the chars of the word to the start of dst*/
+	public void getChars(int id, char[] dst);
+
+	/** Returns the number of words in the index*/
+	public int size();
+
+	/** Returns the number of distinct codes in the index*/
+	public int codeCount();
+
+	/** Returns a new list holding the words of the code's bucket*/
+	public LinkedList words(CharSequence code);
+}
@@ -0,0 +1,105 @@
+package com.swabunga.spell.engine;
+
+import java.nio.IntBuffer;
+
+/**
+ * Hashing helpers for the exact word tables of the WordIndex
+ * implementations.
+ * <p>
+ * A word table is an open-addressing table of word id + 1 (0 marks a free
+ * slot) sized to a power of two at least twice the word count. It is
+ * fronted by a Bloom filter of four bits per table slot probed with three
+ * hashes, so most words that are not in the dictionary are rejected
+ * without touching the table or the word chars.
+ * </p>
+ * <p>
+ * Words can be hashed as if they had been lower cased first, which lets
+ * isCorrect try the lower case form of a word without allocating it.
+ * </p>
+ */
+final class WordTable
+{
+
+	private WordTable() {
+	}
+
+	/** Returns the smallest power of two table size keeping the load under 1/2*/
+	static int tableSizeFor(int entries) {
+		int size = 16;
+		while (size < entries * 2)
+			size <<= 1;
+		return size;
+	}
+
+	/** Returns the number of ints of the Bloom filter for a table size*/
+	static int bloomSizeFor(int tableSize) {
+		return tableSize / 8;
+	}
+
+	/** String compatible hash of the word, optionally of its lower case form*/
+	static int hash(CharSequence word, boolean lowerCase) {
+		int h = 0;
+		for (int i = 0; i < word.length(); i++) {
+			char ch = word.charAt(i);
+			h = 31 * h + (lowerCase ? Character.toLowerCase(ch) : ch);
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/** Same hash as hash(word, false) over a range of a char array*/
+	static int hash(char[] chars, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++)
+			h = 31 * h + chars[i];
+		return h ^ (h >>> 16);
+	}
+
+	/** The second hash used to derive the Bloom filter probes*/
+	private static int hash2(int h) {
+		h *= 0x9E3779B9;
+		return (h ^ (h >>> 15)) | 1;
+	}
+
+	/** Sets the Bloom filter bits of a hash*/
+	static void bloomAdd(int[] bloom, int h) {
+		int mask = bloom.length * 32 - 1;
+		int h2 = hash2(h);
+		for (int i = 0; i < 3; i++) {
+			int bit = (h + i * h2) & mask;
+			bloom[bit >>> 5] |= 1 << bit;
+		}
+	}
+
+	/** Returns false if no word with this hash was added to the filter*/
+	static boolean bloomMightContain(int[] bloom, int h) {
+		int mask = bloom.length * 32 - 1;
+		int h2 = hash2(h);
+		for (int i = 0; i < 3; i++) {
+			int bit = (h + i * h2) & mask;
+			if ((bloom[bit >>> 5] & (1 << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/** Returns false if no word with this hash was added to the filter*/
+	static boolean bloomMightContain(IntBuffer bloom, int h) {
+		int mask = bloom.limit() * 32 - 1;
+		int h2 = hash2(h);
+		for (int i = 0; i < 3; i++) {
+			int bit = (h + i * h2) & mask;
+			if ((bloom.get(bit >>> 5) & (1 << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/** Puts the word id into the first free slot of its probe sequence*/
+	static void insert(int[] table, int h, int id) {
+		int mask = table.length - 1;
+		int slot = h & mask;
+		while (table[slot] != 0)
+			slot = (slot + 1) & mask;
+		table[slot] = id + 1;
+	}
+}
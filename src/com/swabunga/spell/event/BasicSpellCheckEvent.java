@@ -17,7 +17,6 @@ class BasicSpellCheckEvent implements SpellCheckEvent {
   /**Contains the word to be replaced if the action is REPLACE or REPLACEALL*/
   private String replaceWord = null;
 
-  private String context;
   private int startPosition;
 
 
@@ -30,7 +29,8 @@ class BasicSpellCheckEvent implements SpellCheckEvent {
   public BasicSpellCheckEvent(String invalidWord, List suggestions, WordTokenizer tokenizer) {
     this.invalidWord = invalidWord;
     this.suggestions = suggestions;
-    this.context = tokenizer.getContext();
+    // The context is not kept: getWordContext is not implemented yet and
+    // the context of a document tokenizer is a copy of the whole document
     this.startPosition = tokenizer.getCurrentWordPosition();
   }
 
@@ -10,6 +10,16 @@ import javax.swing.text.BadLocationException;
 
 /** This class tokenizes a swing document model. It also allows for the
  *  document model to be changed when corrections occur.
+ *  <p>
+ *  The text is copied once into a Segment the tokenizer owns and the words
+ *  are taken from it, without going back to the document. A Segment filled
+ *  by Document.getText may be a view of the document's own storage, valid
+ *  only until the next edit, so it is read with partial returns and copied
+ *  right away. A replacement is made in the
+ *  document only: the tokenizer never looks back, so the Segment keeps the
+ *  original text and the positions it hands out are moved by the length
+ *  difference of the replacements so far. A correction therefore costs
+ *  the document edit and nothing that grows with the document.</p>
  *
  * @author Jason Height (jheight@chariot.net.au)
  */
@@ -22,8 +32,14 @@ public class DocumentWordTokenizer implements WordTokenizer {
   private int nextWordPos = -1;
   /** The actual text that is being tokenized*/
   private Document document;
-  /** The character iterator over the document*/
+  /** The character iterator over the document text as it was read*/
   private Segment text;
+  /** The view of the current word handed out by nextWordChars*/
+  private final Segment wordView = new Segment();
+  /** The chars inserted less the chars removed by replaceWord, added to
+   *  the positions in text to get the positions in the document
+   */
+  private int shift = 0;
   /** The cumulative word count that have been processed*/
   private int wordCount = 0;
   /** Flag indicating if there are any more tokens (words) left*/
@@ -43,7 +59,7 @@ public class DocumentWordTokenizer implements WordTokenizer {
     text = new Segment();
     sentanceIterator = BreakIterator.getSentenceInstance();
     try {
-      document.getText(0, document.getLength(), text);
+      text = copyText(document);
       sentanceIterator.setText(text);
       currentWordPos = getNextWordStart(text, 0);
       //If the current word pos is -1 then the string was all white space
@@ -58,6 +74,21 @@ public class DocumentWordTokenizer implements WordTokenizer {
     }
   }
 
+  /** Copies the text of the document into a new Segment. The document's
+   *  Segments are transient views, each one is copied before the next read.
+   */
+  private static Segment copyText(Document document) throws BadLocationException {
+    int length = document.getLength();
+    char[] chars = new char[length];
+    Segment part = new Segment();
+    part.setPartialReturn(true);
+    for (int at = 0; at < length; at += part.count) {
+      document.getText(at, length - at, part);
+      System.arraycopy(part.array, part.offset, chars, at, part.count);
+    }
+    return new Segment(chars, 0, length);
+  }
+
   /** This helper method will return the start character of the next
    * word in the buffer from the start position
    */
@@ -95,21 +126,45 @@ public class DocumentWordTokenizer implements WordTokenizer {
    *
    */
   public int getCurrentWordPosition() {
-    return currentWordPos;
+    return currentWordPos + shift;
   }
 
   /** Returns the current end word position in the text
    *
    */
   public int getCurrentWordEnd() {
-    return currentWordEnd;
+    return currentWordEnd + shift;
+  }
+
+  /** Returns the current word as a view of the text, no chars are copied.
+   *  The view is valid until the next call to nextWord or nextWordChars.
+   */
+  public CharSequence getCurrentWordChars() {
+    wordView.array = text.array;
+    wordView.offset = text.offset + currentWordPos;
+    wordView.count = currentWordEnd - currentWordPos;
+    return wordView;
   }
 
+  /** Returns the next word in the text as a view, like getCurrentWordChars.
+   *  SpellChecker checks the words this way and only makes a String of the
+   *  words it reports.
+   */
+  public CharSequence nextWordChars() {
+    advance();
+    return getCurrentWordChars();
+  }
 
   /** Returns the next word in the text
    *
    */
   public String nextWord() {
+    advance();
+    return new String(text.array, text.offset + currentWordPos, currentWordEnd-currentWordPos);
+  }
+
+  /** Moves to the next word*/
+  private void advance() {
     if (!first) {
       currentWordPos = nextWordPos;
       currentWordEnd = getNextWordEnd(text, currentWordPos);
@@ -125,17 +180,10 @@ public class DocumentWordTokenizer implements WordTokenizer {
 
     }
     //The nextWordPos has already been populated
-    String word = null;
-    try {
-      word = document.getText(currentWordPos, currentWordEnd-currentWordPos);
-    } catch (BadLocationException ex) {
-      moreTokens = false;
-    }
     wordCount++;
     first = false;
     if (nextWordPos == -1)
       moreTokens = false;
-    return word;
   }
 
   /** Returns the current number of words that have been processed
@@ -145,43 +193,41 @@ public class DocumentWordTokenizer implements WordTokenizer {
     return wordCount;
   }
 
-  /** Replaces the current word token*/
+  /** Replaces the current word token. Only the document is changed, the
+   *  words after it are still read from the text as it was.
+   */
   public void replaceWord(String newWord) {
     if (currentWordPos != -1) {
+      int position = currentWordPos + shift;
+      int length = currentWordEnd - currentWordPos;
       try {
       /* ORIGINAL
-        document.remove(currentWordPos, currentWordEnd - currentWordPos);
-        document.insertString(currentWordPos, newWord, null);
+        document.remove(position, length);
+        document.insertString(position, newWord, null);
       */
       // Howard's Version for Ekit
-		Element	element = ((javax.swing.text.html.HTMLDocument)document).getCharacterElement(currentWordPos);
+		Element	element = ((javax.swing.text.html.HTMLDocument)document).getCharacterElement(position);
 		AttributeSet attribs = element.getAttributes();
-        document.remove(currentWordPos, currentWordEnd - currentWordPos);
-        document.insertString(currentWordPos, newWord, attribs);
+        document.remove(position, length);
+        document.insertString(position, newWord, attribs);
       // End Howard's Version
-        //Need to reset the segment
-        document.getText(0, document.getLength(), text);
       } catch (BadLocationException ex) {
         throw new RuntimeException(ex.getMessage());
       }
-      //Position after the newly replaced word(s)
-      //Position after the newly replaced word(s)
-      first = true;
-      currentWordPos = getNextWordStart(text, currentWordPos+newWord.length());
-      if (currentWordPos != -1) {
-        currentWordEnd = getNextWordEnd(text, currentWordPos);
-        nextWordPos = getNextWordStart(text, currentWordEnd);
-        sentanceIterator.setText(text);
-        sentanceIterator.following(currentWordPos);
-      } else moreTokens = false;
+      shift += newWord.length() - length;
     }
   }
 
   /** Returns the current text that is being tokenized (includes any changes
-   *  that have been made)
+   *  that have been made). The text is read from the document, so this
+   *  costs a copy of the whole document.
    */
   public String getContext() {
-    return text.toString();
+    try {
+      return document.getText(0, document.getLength());
+    } catch (BadLocationException ex) {
+      return text.toString();
+    }
   }
 
   /** Returns true iif the current word is at the start of a sentance*/
@@ -0,0 +1,318 @@
+package com.swabunga.spell.event;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.text.BreakIterator;
+import java.util.Arrays;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.html.HTML;
+import javax.swing.text.html.HTMLEditorKit;
+import javax.swing.text.html.parser.ParserDelegator;
+
+/** This class tokenizes text read from a Reader while keeping only a
+ *  window of it in memory, so text of any length can be checked.
+ *  <p>
+ *  The text is read into a buffer of WINDOW chars. When the words reach
+ *  the end of the buffer, the text before the previous word is dropped and
+ *  the rest moved to the front. Only a word, or a run of chars between two
+ *  words, longer than the buffer makes it grow. Whether a word starts a
+ *  sentance is decided from the text since the previous word: when that
+ *  holds a sentance terminator or a line break, a BreakIterator is run
+ *  over the two words.</p>
+ *  <p>
+ *  Positions are char offsets from the start of the text. The Reader
+ *  can't be corrected, so replaceWord needs a Writer: the text is copied to
+ *  it as it is read, with the replacements made, and close copies the
+ *  rest.</p>
+ *  <p>
+ *  html tokenizes the text content of an HTML document only. The document
+ *  is parsed by the Swing HTML parser on a separate thread whose callback
+ *  feeds the text to the tokenizer through a pipe.</p>
+ */
+public class ReaderWordTokenizer implements WordTokenizer {
+  /** The initial number of chars of the window*/
+  public static final int WINDOW = 64 * 1024;
+
+  private final Reader in;
+  private final Writer out;
+  /** Set by the thread feeding the Reader if it failed, checked at the end of the text*/
+  private final IOException[] sourceFailure;
+  private char[] buf = new char[WINDOW];
+  /** The text position of buf[0]*/
+  private int base = 0;
+  /** The number of chars in buf*/
+  private int count = 0;
+  private boolean eof = false;
+  /** The text position up to which the text was copied to out*/
+  private int written = 0;
+  /** The position being scanned for the start or end of a word*/
+  private int scanned = 0;
+
+  /** The start and end of the previous word, -1 before the second word*/
+  private int previousWordPos = -1;
+  private int previousWordEnd = -1;
+  /** The start and end of the current word, -1 before the first word*/
+  private int currentWordPos = -1;
+  private int currentWordEnd = -1;
+  /** The start of the next word, -1 if there is none*/
+  private int nextWordPos;
+  private int wordCount = 0;
+  private boolean startsSentance = true;
+  private final BreakIterator sentanceIterator = BreakIterator.getSentenceInstance();
+
+  public ReaderWordTokenizer(Reader in) {
+    this(in, null);
+  }
+
+  /** Constructs the tokenizer, copying the text with the replacements made to out*/
+  public ReaderWordTokenizer(Reader in, Writer out) {
+    this(in, out, null);
+  }
+
+  /** Constructs the tokenizer over the chars of a channel in the charset*/
+  public ReaderWordTokenizer(ReadableByteChannel channel, Charset charset) {
+    this(Channels.newReader(channel, charset.newDecoder(), -1), null, null);
+  }
+
+  private ReaderWordTokenizer(Reader in, Writer out, IOException[] sourceFailure) {
+    this.in = in;
+    this.out = out;
+    this.sourceFailure = sourceFailure;
+    nextWordPos = getNextWordStart(0);
+  }
+
+  /** Returns a tokenizer over the text content of an HTML document. Block
+   *  tags end the words, the contents of script and style tags are skipped.
+   *  Positions are offsets in the text content.
+   */
+  public static ReaderWordTokenizer html(final Reader html) throws IOException {
+    final PipedWriter pipeOut = new PipedWriter();
+    PipedReader pipeIn = new PipedReader(pipeOut, WINDOW);
+    final IOException[] failure = new IOException[1];
+    Thread parser = new Thread(new Runnable() {
+      public void run() {
+        try {
+          new ParserDelegator().parse(html, new TextCallback(pipeOut), true);
+        } catch (IOException ex) {
+          failure[0] = ex;
+        } catch (UncheckedIOException ex) {
+          // The tokenizer was closed before the end of the document
+        } finally {
+          try {
+            pipeOut.close();
+          } catch (IOException ex) {
+          }
+        }
+      }
+    }, "HTML text reader");
+    parser.setDaemon(true);
+    parser.start();
+    return new ReaderWordTokenizer(pipeIn, null, failure);
+  }
+
+  /** Returns the char at the text position, reading more text if needed, or -1 at the end*/
+  private int charAt(int position) {
+    scanned = position;
+    while (position - base >= count) {
+      if (!fill())
+        return -1;
+    }
+    return buf[position - base];
+  }
+
+  /** Reads more text into the window, dropping the text no longer needed. Returns false at the end*/
+  private boolean fill() {
+    if (eof)
+      return false;
+    try {
+      if (count == buf.length) {
+        int keep = (previousWordPos >= 0 ? previousWordPos : currentWordPos >= 0 ? currentWordPos : scanned) - base;
+        if (keep == 0) {
+          buf = Arrays.copyOf(buf, buf.length * 2);
+        } else {
+          copyTo(base + keep);
+          System.arraycopy(buf, keep, buf, 0, count - keep);
+          base += keep;
+          count -= keep;
+        }
+      }
+      int n = in.read(buf, count, buf.length - count);
+      if (n < 0) {
+        eof = true;
+        if (sourceFailure != null && sourceFailure[0] != null)
+          throw sourceFailure[0];
+        return false;
+      }
+      count += n;
+      return true;
+    } catch (IOException ex) {
+      eof = true;
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /** Copies the text up to the position to out*/
+  private void copyTo(int position) throws IOException {
+    if (out != null && written < position) {
+      out.write(buf, written - base, position - written);
+      written = position;
+    }
+  }
+
+  /** This helper method will return the start of the next word from the
+   *  position, or -1 if there is none
+   */
+  private int getNextWordStart(int position) {
+    for (int ch = charAt(position); ch != -1; ch = charAt(++position)) {
+      if (Character.isLetterOrDigit((char) ch))
+        return position;
+    }
+    return -1;
+  }
+
+  /** This helper method will return the end of the word at the position*/
+  private int getNextWordEnd(int position) {
+    for (int ch = charAt(position); ch != -1; ch = charAt(++position)) {
+      if (!Character.isLetterOrDigit((char) ch))
+        return position;
+    }
+    return position;
+  }
+
+  /** Returns true if the current word starts a sentance, going by the text since the previous word*/
+  private boolean isSentanceStart() {
+    if (previousWordPos < 0)
+      return true;
+    boolean terminated = false;
+    for (int i = previousWordEnd - base; i < currentWordPos - base && !terminated; i++) {
+      char ch = buf[i];
+      terminated = ch == '.' || ch == '!' || ch == '?' || ch == '\n' || ch == '\r' || ch > 0x7f;
+    }
+    if (!terminated)
+      return false;
+    sentanceIterator.setText(new String(buf, previousWordPos - base, currentWordEnd - previousWordPos));
+    return sentanceIterator.isBoundary(currentWordPos - previousWordPos);
+  }
+
+  /** Returns true if there are more words that can be processed in the text*/
+  public boolean hasMoreWords() {
+    return nextWordPos != -1;
+  }
+
+  /** Returns the current character position in the text*/
+  public int getCurrentWordPosition() {
+    return currentWordPos;
+  }
+
+  /** Returns the current end word position in the text*/
+  public int getCurrentWordEnd() {
+    return currentWordEnd;
+  }
+
+  /** Returns the next word in the text*/
+  public String nextWord() {
+    previousWordPos = currentWordPos;
+    previousWordEnd = currentWordEnd;
+    currentWordPos = nextWordPos;
+    currentWordEnd = getNextWordEnd(currentWordPos);
+    startsSentance = isSentanceStart();
+    String word = new String(buf, currentWordPos - base, currentWordEnd - currentWordPos);
+    wordCount++;
+    nextWordPos = getNextWordStart(currentWordEnd);
+    return word;
+  }
+
+  /** Returns the current number of words that have been processed*/
+  public int getCurrentWordCount() {
+    return wordCount;
+  }
+
+  /** Writes the new word to the Writer in place of the current word.
+   *  @throws UnsupportedOperationException if the tokenizer has no Writer
+   */
+  public void replaceWord(String newWord) {
+    if (out == null)
+      throw new UnsupportedOperationException("The words of a Reader can only be replaced in a copy, see ReaderWordTokenizer(Reader, Writer)");
+    if (currentWordPos != -1) {
+      try {
+        copyTo(currentWordPos);
+        out.write(newWord);
+        written = currentWordEnd;
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+  }
+
+  /** Returns the text in the window, the whole text is never held*/
+  public String getContext() {
+    return new String(buf, 0, count);
+  }
+
+  /** Returns true iif the current word is at the start of a sentance*/
+  public boolean isNewSentance() {
+    return startsSentance;
+  }
+
+  /** Copies the rest of the text to the Writer, if there is one, and
+   *  closes the Reader.
+   */
+  public void close() throws IOException {
+    try {
+      if (out != null) {
+        copyTo(base + count);
+        for (int n = in.read(buf); n >= 0; n = in.read(buf))
+          out.write(buf, 0, n);
+        out.flush();
+      }
+    } finally {
+      eof = true;
+      in.close();
+    }
+  }
+
+  /** Writes the text content of an HTML document to the pipe*/
+  private static class TextCallback extends HTMLEditorKit.ParserCallback {
+    private final Writer out;
+    /** The depth of script and style tags the parser is in*/
+    private int skipped = 0;
+
+    TextCallback(Writer out) {
+      this.out = out;
+    }
+
+    private void write(char[] text) {
+      try {
+        out.write(text);
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex); // stops the parser
+      }
+    }
+
+    public void handleText(char[] data, int pos) {
+      if (skipped == 0)
+        write(data);
+    }
+
+    public void handleStartTag(HTML.Tag tag, MutableAttributeSet attributes, int pos) {
+      if (tag == HTML.Tag.SCRIPT || tag == HTML.Tag.STYLE)
+        skipped++;
+      else if (tag.breaksFlow())
+        write(new char[] { '\n' });
+    }
+
+    public void handleEndTag(HTML.Tag tag, int pos) {
+      if (tag == HTML.Tag.SCRIPT || tag == HTML.Tag.STYLE)
+        skipped = Math.max(0, skipped - 1);
+      else if (tag.breaksFlow())
+        write(new char[] { '\n' });
+    }
+
+    public void handleSimpleTag(HTML.Tag tag, MutableAttributeSet attributes, int pos) {
+      if (tag.breaksFlow())
+        write(new char[] { '\n' });
+    }
+  }
+}
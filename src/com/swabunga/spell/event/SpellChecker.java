@@ -1,7 +1,17 @@
 package com.swabunga.spell.event;
 
 import com.swabunga.spell.engine.*;
+import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.StyledDocument;
 
 /**
  * This is the main class for spell checking (using the new event based spell
@@ -17,14 +27,17 @@ public class SpellChecker
   public static final int SPELLCHECK_OK=-1;
   /** Flag indicating that the Spell Check completed due to user cancellation*/
   public static final int SPELLCHECK_CANCEL=-2;
+  /** The number of chars of whole paragraphs checked by one task of checkSpelling(Document)*/
+  private static final int CHUNK = 4096;
 
   private List eventListeners = new ArrayList();
   private SpellDictionary dictionary;
   
   private Configuration config = Configuration.getConfiguration();
 
-  /**This variable holds all of the words that are to be always ignored */
-  private Set ignoredWords = new HashSet();
+  /**This variable holds all of the words that are to be always ignored.
+   *  Synchronized, as AutoSpellChecker reads it on its worker thread */
+  private Set ignoredWords = Collections.synchronizedSet(new HashSet());
   private Map autoReplaceWords = new HashMap();
 
   /**
@@ -94,6 +107,16 @@ public class SpellChecker
   }
 
 
+  /**
+   * Returns true if the word was chosen to be always ignored (Ignore All).
+   * May be called from any thread.
+   */
+  public boolean isIgnored(String word) {
+    Set words = ignoredWords;
+    return words != null && words.contains(word);
+  }
+
+
   /**
    * Checks the text string.
    *  <p>
@@ -185,6 +208,23 @@ public class SpellChecker
   }
 
 
+  /**
+   * Returns true if a misspelt word is not to be reported because the
+   * settings ignore words like it (mixed case, upper case, digits or
+   * internet addresses).
+   *
+   * @param  word            The misspelt word
+   * @param  startsSentance  True if this word is at the start of a sentance
+   * @param  settings        The configuration the check runs with
+   */
+  public static boolean isIgnorable(String word, boolean startsSentance, ConfigurationSnapshot settings) {
+    return (settings.ignoreMixedCase && isMixedCaseWord(word, startsSentance)) ||
+        (settings.ignoreUpperCase && isUpperCaseWord(word)) ||
+        (settings.ignoreDigitWords && isDigitWord(word)) ||
+        (settings.ignoreInternetAddresses && isINETWord(word));
+  }
+
+
   /**
    * This method will fire the spell check event and then handle the event
    *  action that has been selected by the user.
@@ -244,15 +284,15 @@ public class SpellChecker
     boolean terminated = false;
     //Keep track of the previous word
     String previousWord = null;
+    ConfigurationSnapshot settings = config.getSnapshot();
+    boolean[] correct = new boolean[1];
     while (tokenizer.hasMoreWords() && !terminated) {
-      String word = tokenizer.nextWord();
+      String word = nextWordToCheck(tokenizer, settings, correct);
+      if (word == null)
+        continue;
       //Check the spelling of the word
-      if (!dictionary.isCorrect(word)) {
- 		if (
-          	  (config.getBoolean(Configuration.SPELL_IGNOREMIXEDCASE) && isMixedCaseWord(word, tokenizer.isNewSentance())) ||
-              (config.getBoolean(Configuration.SPELL_IGNOREUPPERCASE) && isUpperCaseWord(word)) ||
-              (config.getBoolean(Configuration.SPELL_IGNOREDIGITWORDS) && isDigitWord(word)) ||
-              (config.getBoolean(Configuration.SPELL_IGNOREINTERNETADDRESSES) && isINETWord(word))) {
+      if (!correct[0]) {
+        if (isIgnorable(word, tokenizer.isNewSentance(), settings)) {
           //Null event. Since we are ignoring this word due
           //to one of the above cases.
         } else {
@@ -268,7 +308,7 @@ public class SpellChecker
               //ignoreSentanceCapitalisation is not set to true
               //Fire the event.
               SpellCheckEvent event = new BasicSpellCheckEvent(word, dictionary.getSuggestions(word,
-                  config.getInteger(Configuration.SPELL_THRESHOLD)), tokenizer);
+                  settings.threshold), tokenizer);
               terminated = fireAndHandleEvent(tokenizer, event);
             }
           }
@@ -281,7 +321,7 @@ public class SpellChecker
          *  }
          */
         //Check for capitalisation
-        if ((!config.getBoolean(Configuration.SPELL_IGNORESENTANCECAPITALIZATION)) && (tokenizer.isNewSentance())
+        if ((!settings.ignoreSentenceCapitalization) && (tokenizer.isNewSentance())
             && (Character.isLowerCase(word.charAt(0)))) {
           errors++;
           StringBuffer buf = new StringBuffer(word);
@@ -301,6 +341,359 @@ public class SpellChecker
     else return errors;
   }
 
+  /**
+   * Moves the tokenizer to the next word and returns it, or null if a
+   * DocumentWordTokenizer's word is spelt right and needs no capital. Those
+   * words are checked as views of the text, so only the words that may be
+   * reported are made into Strings. Every word is looked up once, correct[0]
+   * tells whether the returned word is spelt right.
+   */
+  private String nextWordToCheck(WordTokenizer tokenizer, ConfigurationSnapshot settings, boolean[] correct) {
+    if (!(tokenizer instanceof DocumentWordTokenizer)) {
+      String word = tokenizer.nextWord();
+      correct[0] = dictionary.isCorrect(word);
+      return word;
+    }
+    CharSequence chars = ((DocumentWordTokenizer) tokenizer).nextWordChars();
+    correct[0] = dictionary.isCorrect(chars);
+    if (correct[0] && (settings.ignoreSentenceCapitalization
+        || !tokenizer.isNewSentance() || !Character.isLowerCase(chars.charAt(0))))
+      return null;
+    return chars.toString();
+  }
+
+  /**
+   * Checks the spelling of a whole document like
+   * checkSpelling(new DocumentWordTokenizer(document)), but finds the
+   * errors in parallel.
+   * <p>The text is copied once under the document's read lock and split
+   * into chunks of whole paragraph elements. The chunks are checked on the
+   * common fork join pool, and the suggestions for each distinct misspelt
+   * word are computed once. The events are fired in document order on the
+   * calling thread as soon as the chunks before them are done, so the first
+   * error is shown while the rest of the document is still being checked.
+   * The calling thread waits for the chunks, so from the event thread use
+   * checkSpellingInBackground.</p>
+   *
+   * @param  document  The document to check, corrections are made to it
+   * @see #checkAll(WordTokenizer)
+   * @return Either SPELLCHECK_OK, SPELLCHECK_CANCEL or the number of errors found.
+   */
+  public final int checkSpelling(final Document document) {
+    try {
+      return checkSpelling(document, false);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return SPELLCHECK_CANCEL;
+    }
+  }
+
+  /**
+   * Returns a worker that checks the document like checkSpelling(Document)
+   * without blocking the event thread: the chunks are waited for on the
+   * worker thread and only the events are fired on the event thread, in
+   * document order. The check starts when execute is called on the worker;
+   * its get returns the result of checkSpelling(Document) as an Integer.
+   * cancel(true) stops the check, and the chunks still running with it.
+   *
+   * @param  document  The document to check, corrections are made to it
+   */
+  public SwingWorker checkSpellingInBackground(final Document document) {
+    return new SwingWorker() {
+      protected Object doInBackground() throws InterruptedException {
+        return Integer.valueOf(checkSpelling(document, true));
+      }
+    };
+  }
+
+  /**
+   * Checks the document as described at checkSpelling(Document). When
+   * onEventThread is set the events of each chunk are fired on the event
+   * thread with invokeAndWait. The chunks stop at the next paragraph once
+   * the check is over, is cancelled or is interrupted.
+   */
+  private int checkSpelling(final Document document, boolean onEventThread) throws InterruptedException {
+    final ConfigurationSnapshot settings = config.getSnapshot();
+    final String[] text = new String[1];
+    final ArrayList starts = new ArrayList();
+    document.render(new Runnable() {
+      public void run() {
+        try {
+          text[0] = document.getText(0, document.getLength());
+        } catch (BadLocationException ex) {
+          text[0] = "";
+        }
+        int chunkStart = 0;
+        starts.add(Integer.valueOf(0));
+        for (int offset = 0; offset < text[0].length();) {
+          offset = paragraph(document, offset).getEndOffset();
+          if (offset - chunkStart >= CHUNK && offset < text[0].length()) {
+            starts.add(Integer.valueOf(offset));
+            chunkStart = offset;
+          }
+        }
+      }
+    });
+    final ConcurrentHashMap suggestions = new ConcurrentHashMap();
+    final AtomicBoolean stopped = new AtomicBoolean();
+    ForkJoinTask[] chunks = new ForkJoinTask[starts.size()];
+    for (int i = 0; i < chunks.length; i++) {
+      final int start = ((Integer) starts.get(i)).intValue();
+      final int end = i + 1 < chunks.length ? ((Integer) starts.get(i + 1)).intValue() : text[0].length();
+      chunks[i] = ForkJoinPool.commonPool().submit(new Callable() {
+        public Object call() {
+          return findErrors(text[0], start, end, settings, suggestions, stopped);
+        }
+      });
+    }
+    // errors found and 1 once the user ended the check
+    final int[] result = new int[2];
+    final DocumentErrorTokenizer tokenizer = new DocumentErrorTokenizer(document);
+    try {
+      for (int i = 0; i < chunks.length && result[1] == 0; i++) {
+        final List found;
+        try {
+          found = (List) chunks[i].get();
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof Error)
+            throw (Error) cause;
+          throw (RuntimeException) cause;
+        }
+        Runnable fire = new Runnable() {
+          public void run() {
+            fireErrors(found, tokenizer, suggestions, result);
+          }
+        };
+        if (!onEventThread) {
+          fire.run();
+        } else {
+          try {
+            SwingUtilities.invokeAndWait(fire);
+          } catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Error)
+              throw (Error) cause;
+            throw (RuntimeException) cause;
+          }
+        }
+      }
+    } finally {
+      stopped.set(true);
+      for (int i = 0; i < chunks.length; i++)
+        chunks[i].cancel(false);
+    }
+    if (result[1] != 0)
+      return SPELLCHECK_CANCEL;
+    else if (result[0] == 0)
+      return SPELLCHECK_OK;
+    else return result[0];
+  }
+
+  /**
+   * Fires the events for the errors of one chunk, counting them in
+   * result[0]. Sets result[1] and stops if the user ends the check.
+   */
+  private void fireErrors(List found, DocumentErrorTokenizer tokenizer, ConcurrentHashMap suggestions, int[] result) {
+    if (eventListeners == null) {
+      result[1] = 1; // disposed meanwhile
+      return;
+    }
+    for (Iterator j = found.iterator(); j.hasNext() && result[1] == 0;) {
+      SpellingError error = (SpellingError) j.next();
+      String word = error.getWord();
+      tokenizer.setWord(error.getOffset(), word);
+      boolean terminated;
+      if (error.isMisspelt()) {
+        // Words may have been added or ignored at an earlier error
+        if (ignoredWords.contains(word) || dictionary.isCorrect(word))
+          continue;
+        result[0]++;
+        if (autoReplaceWords.containsKey(word)) {
+          tokenizer.replaceWord((String) autoReplaceWords.get(word));
+          terminated = false;
+        } else {
+          SpellingError first = (SpellingError) suggestions.get(word);
+          SpellCheckEvent event = new BasicSpellCheckEvent(word,
+              new LinkedList(first.getSuggestions()), tokenizer);
+          terminated = fireAndHandleEvent(tokenizer, event);
+        }
+      } else {
+        result[0]++;
+        SpellCheckEvent event = new BasicSpellCheckEvent(word,
+            new LinkedList(error.getSuggestions()), tokenizer);
+        terminated = fireAndHandleEvent(tokenizer, event);
+      }
+      if (terminated)
+        result[1] = 1;
+    }
+  }
+
+  /** Returns the paragraph element at the offset, or the line for a plain document*/
+  private static Element paragraph(Document document, int offset) {
+    if (document instanceof StyledDocument)
+      return ((StyledDocument) document).getParagraphElement(offset);
+    Element root = document.getDefaultRootElement();
+    return root.getElement(root.getElementIndex(offset));
+  }
+
+  /**
+   * Finds the errors in the paragraphs of text between start and end, as
+   * checkSpelling(WordTokenizer) would before any correction, and looks up
+   * the suggestions of the misspelt words not seen before. The first error
+   * for each word is kept in suggestions. Stops at the next paragraph once
+   * stopped is set.
+   */
+  private List findErrors(String text, int start, int end,
+      ConfigurationSnapshot settings, ConcurrentHashMap suggestions, AtomicBoolean stopped) {
+    ArrayList found = new ArrayList();
+    for (int offset = start; offset < end && !stopped.get();) {
+      int paragraphEnd = end;
+      for (int i = offset; i < end; i++) {
+        if (text.charAt(i) == '\n') {
+          paragraphEnd = i + 1;
+          break;
+        }
+      }
+      int first = found.size();
+      findErrors(new StringWordTokenizer(text.substring(offset, paragraphEnd)), offset, settings,
+          settings.maxSuggestions, null, found);
+      for (int i = first; i < found.size(); i++) {
+        SpellingError error = (SpellingError) found.get(i);
+        if (error.isMisspelt() && suggestions.putIfAbsent(error.getWord(), error) == null)
+          error.getSuggestions();
+      }
+      offset = paragraphEnd;
+    }
+    return found;
+  }
+
+  /**
+   * Checks the words of the tokenizer without firing events and returns
+   * the errors in text order as an unmodifiable list of SpellingError.
+   * The suggestions are looked up when first asked for, at most
+   * SPELL_MAXSUGGESTIONS of them.
+   *
+   * @see #checkAll(WordTokenizer, int, Set)
+   */
+  public List checkAll(WordTokenizer tokenizer) {
+    return checkAll(tokenizer, config.getSnapshot().maxSuggestions, null);
+  }
+
+  /**
+   * Checks the words of the tokenizer without firing events and returns
+   * the errors in text order as an unmodifiable list of SpellingError.
+   * <p>No corrections are made and the Ignore All and Replace All words of
+   * this checker are neither used nor changed, so any number of threads
+   * may call this at once, each with its own tokenizer. The words in
+   * ignoredWords (which may be null) are not reported.</p>
+   *
+   * @param  tokenizer       The words to check
+   * @param  maxSuggestions  The number of suggestions looked up per error, 0 for all of them
+   * @param  ignoredWords    The words to ignore in this call, or null
+   * @return The errors found, before any correction
+   */
+  public List checkAll(WordTokenizer tokenizer, int maxSuggestions, Set ignoredWords) {
+    ArrayList errors = new ArrayList();
+    findErrors(tokenizer, 0, config.getSnapshot(), maxSuggestions, ignoredWords, errors);
+    return Collections.unmodifiableList(errors);
+  }
+
+  /**
+   * Adds the errors checkSpelling(WordTokenizer) would report for the words
+   * of the tokenizer, with their positions moved by base, to errors.
+   */
+  private void findErrors(WordTokenizer tokenizer, int base, ConfigurationSnapshot settings,
+      int maxSuggestions, Set ignoredWords, List errors) {
+    boolean[] correct = new boolean[1];
+    while (tokenizer.hasMoreWords()) {
+      String word = nextWordToCheck(tokenizer, settings, correct);
+      if (word == null)
+        continue;
+      if (!correct[0]) {
+        if (isIgnorable(word, tokenizer.isNewSentance(), settings)
+            || (ignoredWords != null && ignoredWords.contains(word)))
+          continue;
+        errors.add(new SpellingError(base + tokenizer.getCurrentWordPosition(), word,
+            dictionary, settings.threshold, maxSuggestions));
+      } else if (!settings.ignoreSentenceCapitalization && tokenizer.isNewSentance()
+          && Character.isLowerCase(word.charAt(0))) {
+        errors.add(new SpellingError(base + tokenizer.getCurrentWordPosition(), word));
+      }
+    }
+  }
+
+  /**
+   * The tokenizer handed to the events of checkSpelling(Document). It is
+   * positioned at each error in turn and keeps track of how much the
+   * replacements so far have moved the rest of the document.
+   */
+  private static final class DocumentErrorTokenizer implements WordTokenizer {
+    private final Document document;
+    /** The chars inserted less the chars removed by the replacements*/
+    private int shift = 0;
+    private int position;
+    private String word;
+    private int count = 0;
+
+    DocumentErrorTokenizer(Document document) {
+      this.document = document;
+    }
+
+    void setWord(int offset, String word) {
+      this.position = offset + shift;
+      this.word = word;
+      count++;
+    }
+
+    public boolean hasMoreWords() {
+      return false;
+    }
+
+    public int getCurrentWordPosition() {
+      return position;
+    }
+
+    public int getCurrentWordEnd() {
+      return position + word.length();
+    }
+
+    /** Returns the current word, there is no word after it*/
+    public String nextWord() {
+      return word;
+    }
+
+    public int getCurrentWordCount() {
+      return count;
+    }
+
+    public void replaceWord(String newWord) {
+      try {
+        AttributeSet attribs = null;
+        if (document instanceof StyledDocument)
+          attribs = ((StyledDocument) document).getCharacterElement(position).getAttributes();
+        document.remove(position, word.length());
+        document.insertString(position, newWord, attribs);
+      } catch (BadLocationException ex) {
+        throw new RuntimeException(ex.getMessage());
+      }
+      shift += newWord.length() - word.length();
+      word = newWord;
+    }
+
+    public String getContext() {
+      try {
+        return document.getText(0, document.getLength());
+      } catch (BadLocationException ex) {
+        return "";
+      }
+    }
+
+    public boolean isNewSentance() {
+      return false;
+    }
+  }
+
 	/** Added to free up the class memory and resources,
 	  * which otherwise trash the system quickly (code by Steve Birmingham)
 	  */
@@ -0,0 +1,79 @@
+package com.swabunga.spell.event;
+
+import com.swabunga.spell.engine.*;
+import java.util.*;
+
+/** A spelling error found by SpellChecker.checkAll: where the word is in
+ *  the text of the tokenizer and what could replace it.
+ *  <p>
+ *  Errors are immutable and may be shared between threads. The suggestions
+ *  for a misspelt word are looked up the first time getSuggestions is
+ *  called, so a caller that only needs the positions pays for none.</p>
+ *
+ * @see SpellChecker#checkAll(WordTokenizer)
+ */
+public final class SpellingError {
+  private final int offset;
+  private final String word;
+  private final boolean misspelt;
+  private final SpellDictionary dictionary;
+  private final int threshold;
+  private final int maxSuggestions;
+  /** The suggestions once looked up, guarded by this*/
+  private List suggestions = null;
+
+  /** Constructs the error for a misspelt word*/
+  SpellingError(int offset, String word, SpellDictionary dictionary, int threshold, int maxSuggestions) {
+    this.offset = offset;
+    this.word = word;
+    this.misspelt = true;
+    this.dictionary = dictionary;
+    this.threshold = threshold;
+    this.maxSuggestions = maxSuggestions;
+  }
+
+  /** Constructs the error for a word that starts a sentance in lower case*/
+  SpellingError(int offset, String word) {
+    this.offset = offset;
+    this.word = word;
+    this.misspelt = false;
+    this.dictionary = null;
+    this.threshold = 0;
+    this.maxSuggestions = 0;
+    StringBuffer buf = new StringBuffer(word);
+    buf.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+    suggestions = Collections.singletonList(new Word(buf.toString(), 0));
+  }
+
+  /** Returns the start position of the word in the text*/
+  public int getOffset() {
+    return offset;
+  }
+
+  /** Returns the number of chars of the word*/
+  public int getLength() {
+    return word.length();
+  }
+
+  public String getWord() {
+    return word;
+  }
+
+  /** Returns true if the word is misspelt, false if it is spelt right but
+   *  starts a sentance in lower case.
+   */
+  public boolean isMisspelt() {
+    return misspelt;
+  }
+
+  /** Returns the suggested Word objects, best first, as an unmodifiable list*/
+  public synchronized List getSuggestions() {
+    if (suggestions == null)
+      suggestions = Collections.unmodifiableList(dictionary.getSuggestions(word, threshold, maxSuggestions));
+    return suggestions;
+  }
+
+  public String toString() {
+    return word + "@" + offset;
+  }
+}
@@ -0,0 +1,345 @@
+package com.swabunga.spell.swing;
+
+import com.swabunga.spell.engine.*;
+import com.swabunga.spell.event.*;
+import javax.swing.*;
+import javax.swing.event.*;
+import javax.swing.text.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.beans.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+/** Checks the spelling of a text component as the user types and
+ *  underlines the misspelt words with a squiggly line.
+ *  <p>
+ *  Document events only record the edited ranges, as Positions so that
+ *  they follow later edits. Once typing pauses for DELAY milliseconds the
+ *  ranges are widened to their paragraph elements and the text of those
+ *  paragraphs is handed to a worker thread, which checks the words. The
+ *  underlines of the checked paragraphs are then replaced on the event
+ *  thread. So the work per keystroke does not grow with the document, and
+ *  only the edited paragraphs are checked again. Each shown paragraph keeps
+ *  the tags of its underlines, so replacing them does not look at the
+ *  underlines of the rest of the document.</p>
+ *  <p>
+ *  A result is dropped if its paragraph changed while it was checked; the
+ *  edit has queued the paragraph again.</p>
+ */
+public class AutoSpellChecker implements DocumentListener, PropertyChangeListener, ActionListener {
+  /** Milliseconds without edits before the edited paragraphs are checked*/
+  public static final int DELAY = 300;
+  /** Paragraphs checked by the worker before their underlines are shown*/
+  private static final int BATCH = 64;
+
+  private final JTextComponent component;
+  private final SpellDictionary dictionary;
+  /** Tells the Ignore All words, or null*/
+  private final SpellChecker checker;
+  private final Highlighter.HighlightPainter painter = new SquigglePainter(Color.red);
+  /** The document being checked, null once disposed*/
+  private Document document;
+  /** The edited ranges not checked yet, start and end Position pairs*/
+  private final List dirty = new ArrayList();
+  /** The shown paragraphs that have underlines, in document order. Only used on the event thread*/
+  private final List underlined = new ArrayList();
+  private final javax.swing.Timer timer = new javax.swing.Timer(DELAY, this);
+  private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "Spell check as you type");
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  /** Starts checking the component's document, the whole document is checked first.
+   *  Must be called on the event thread.
+   */
+  public AutoSpellChecker(JTextComponent component, SpellDictionary dictionary) {
+    this(component, dictionary, null);
+  }
+
+  /** Starts checking the component's document like AutoSpellChecker(component, dictionary),
+   *  but the words the checker was told to Ignore All are not underlined.
+   *  Must be called on the event thread.
+   */
+  public AutoSpellChecker(JTextComponent component, SpellDictionary dictionary, SpellChecker checker) {
+    this.component = component;
+    this.dictionary = dictionary;
+    this.checker = checker;
+    timer.setRepeats(false);
+    component.addPropertyChangeListener("document", this);
+    attach(component.getDocument());
+  }
+
+  private void attach(Document doc) {
+    document = doc;
+    doc.addDocumentListener(this);
+    recheck();
+  }
+
+  private void detach() {
+    document.removeDocumentListener(this);
+    synchronized (dirty) {
+      dirty.clear();
+    }
+    Highlighter highlighter = component.getHighlighter();
+    for (int i = 0; i < underlined.size(); i++)
+      ((Paragraph) underlined.get(i)).unshow(highlighter);
+    underlined.clear();
+  }
+
+  /** Checks the whole document again, for instance after words were added
+   *  to the dictionary.
+   */
+  public void recheck() {
+    if (document == null)
+      return;
+    markDirty(0, document.getLength());
+    timer.restart();
+  }
+
+  /** Stops checking and removes the underlines*/
+  public void dispose() {
+    if (document == null)
+      return;
+    timer.stop();
+    worker.shutdownNow();
+    component.removePropertyChangeListener("document", this);
+    detach();
+    document = null;
+  }
+
+  public void propertyChange(PropertyChangeEvent e) {
+    if (document == null)
+      return;
+    detach();
+    attach(component.getDocument());
+  }
+
+  public void insertUpdate(DocumentEvent e) {
+    markDirty(e.getOffset(), e.getOffset() + e.getLength());
+    timer.restart();
+  }
+
+  public void removeUpdate(DocumentEvent e) {
+    markDirty(e.getOffset(), e.getOffset());
+    timer.restart();
+  }
+
+  public void changedUpdate(DocumentEvent e) {
+  }
+
+  private void markDirty(int start, int end) {
+    try {
+      Position p0 = document.createPosition(start);
+      Position p1 = document.createPosition(end);
+      synchronized (dirty) {
+        dirty.add(p0);
+        dirty.add(p1);
+      }
+    } catch (BadLocationException ex) {
+    }
+  }
+
+  /** Returns the paragraph element at the offset, or the line for a plain document*/
+  private static Element paragraph(Document doc, int offset) {
+    if (doc instanceof StyledDocument)
+      return ((StyledDocument) doc).getParagraphElement(offset);
+    Element root = doc.getDefaultRootElement();
+    return root.getElement(root.getElementIndex(offset));
+  }
+
+  /** Called by the timer once typing paused: hands the edited paragraphs to the worker*/
+  public void actionPerformed(ActionEvent e) {
+    final Document doc = document;
+    if (doc == null)
+      return;
+    Position[] ranges;
+    synchronized (dirty) {
+      ranges = (Position[]) dirty.toArray(new Position[dirty.size()]);
+      dirty.clear();
+    }
+    // The paragraphs by start offset, so each one is checked once
+    TreeMap paragraphs = new TreeMap();
+    try {
+      for (int i = 0; i < ranges.length; i += 2) {
+        int end = ranges[i + 1].getOffset();
+        for (int offset = ranges[i].getOffset(); offset <= end && offset <= doc.getLength();) {
+          Element p = paragraph(doc, offset);
+          Integer start = Integer.valueOf(p.getStartOffset());
+          int length = Math.min(p.getEndOffset(), doc.getLength()) - p.getStartOffset();
+          if (!paragraphs.containsKey(start))
+            paragraphs.put(start, new Paragraph(doc.createPosition(p.getStartOffset()), doc.getText(p.getStartOffset(), length)));
+          offset = p.getEndOffset();
+        }
+      }
+    } catch (BadLocationException ex) {
+      return;
+    }
+    if (paragraphs.isEmpty())
+      return;
+    final Paragraph[] jobs = (Paragraph[]) paragraphs.values().toArray(new Paragraph[paragraphs.size()]);
+    worker.execute(new Runnable() {
+      public void run() {
+        check(doc, jobs);
+      }
+    });
+  }
+
+  /** Checks the paragraphs on the worker thread and shows the results batch by batch*/
+  private void check(final Document doc, Paragraph[] jobs) {
+    ConfigurationSnapshot settings = Configuration.getConfiguration().getSnapshot();
+    for (int from = 0; from < jobs.length && !Thread.currentThread().isInterrupted(); from += BATCH) {
+      final Paragraph[] batch = Arrays.copyOfRange(jobs, from, Math.min(jobs.length, from + BATCH));
+      for (int i = 0; i < batch.length; i++)
+        batch[i].errors = findErrors(batch[i].text, settings);
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          show(doc, batch);
+        }
+      });
+    }
+  }
+
+  /** Returns the start and end offsets of the words the dialog check would report*/
+  private int[] findErrors(String text, ConfigurationSnapshot settings) {
+    int[] errors = new int[8];
+    int count = 0;
+    StringWordTokenizer tokens = new StringWordTokenizer(text);
+    while (tokens.hasMoreWords()) {
+      String word = tokens.nextWord();
+      boolean error;
+      if (!dictionary.isCorrect(word))
+        error = !(checker != null && checker.isIgnored(word)) && !SpellChecker.isIgnorable(word, tokens.isNewSentance(), settings);
+      else
+        error = !settings.ignoreSentenceCapitalization && tokens.isNewSentance() && Character.isLowerCase(word.charAt(0));
+      if (error) {
+        if (count == errors.length)
+          errors = Arrays.copyOf(errors, count * 2);
+        errors[count++] = tokens.getCurrentWordPosition();
+        errors[count++] = tokens.getCurrentWordEnd();
+      }
+    }
+    return Arrays.copyOf(errors, count);
+  }
+
+  /** Replaces the underlines of the checked paragraphs that did not change meanwhile*/
+  private void show(Document doc, Paragraph[] batch) {
+    if (doc != document)
+      return;
+    Highlighter highlighter = component.getHighlighter();
+    for (int i = 0; i < batch.length; i++) {
+      Paragraph p = batch[i];
+      int start = p.start.getOffset();
+      int end = start + p.text.length();
+      try {
+        if (end > doc.getLength() || !doc.getText(start, p.text.length()).equals(p.text))
+          continue;
+        int at = unshow(highlighter, start, end);
+        int[] errors = p.errors;
+        if (errors.length == 0)
+          continue;
+        p.last = doc.createPosition(end - 1);
+        p.tags = new Object[errors.length / 2];
+        underlined.add(at, p);
+        for (int j = 0; j < errors.length; j += 2)
+          p.tags[j / 2] = highlighter.addHighlight(start + errors[j], start + errors[j + 1], painter);
+      } catch (BadLocationException ex) {
+      }
+    }
+  }
+
+  /** Removes the underlines of the shown paragraphs that overlap start to end and
+   *  returns the index in underlined of a paragraph starting at start
+   */
+  private int unshow(Highlighter highlighter, int start, int end) {
+    int low = 0, high = underlined.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (((Paragraph) underlined.get(mid)).start.getOffset() < start)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+    // The paragraph before reaches into the range if the edit joined them
+    if (low > 0 && ((Paragraph) underlined.get(low - 1)).last.getOffset() >= start)
+      low--;
+    while (low < underlined.size()) {
+      Paragraph p = (Paragraph) underlined.get(low);
+      int offset = p.start.getOffset();
+      if (offset >= end && offset != start)
+        break;
+      p.unshow(highlighter);
+      underlined.remove(low);
+    }
+    return low;
+  }
+
+  /** A paragraph queued for checking*/
+  private static class Paragraph {
+    final Position start;
+    final String text;
+    /** Start and end offsets of the errors, set by the worker*/
+    volatile int[] errors;
+    /** The last char and the underline tags once shown, set on the event thread*/
+    Position last;
+    Object[] tags;
+
+    Paragraph(Position start, String text) {
+      this.start = start;
+      this.text = text;
+    }
+
+    void unshow(Highlighter highlighter) {
+      for (int i = 0; i < tags.length; i++)
+        if (tags[i] != null)
+          highlighter.removeHighlight(tags[i]);
+    }
+  }
+
+  /** Paints a zigzag line under the highlighted text*/
+  private static class SquigglePainter extends LayeredHighlighter.LayerPainter {
+    private final Color color;
+
+    SquigglePainter(Color color) {
+      this.color = color;
+    }
+
+    public void paint(Graphics g, int p0, int p1, Shape bounds, JTextComponent c) {
+      // Only called by highlighters that do not paint in layers
+      try {
+        Rectangle r0 = c.modelToView(p0);
+        Rectangle r1 = c.modelToView(p1);
+        if (r0 != null && r1 != null && r0.y == r1.y)
+          squiggle(g, r0.x, r1.x, r0.y + r0.height - 1);
+      } catch (BadLocationException ex) {
+      }
+    }
+
+    public Shape paintLayer(Graphics g, int p0, int p1, Shape bounds, JTextComponent c, View view) {
+      Rectangle r;
+      if (p0 == view.getStartOffset() && p1 == view.getEndOffset()) {
+        r = bounds.getBounds();
+      } else {
+        try {
+          r = view.modelToView(p0, Position.Bias.Forward, p1, Position.Bias.Backward, bounds).getBounds();
+        } catch (BadLocationException ex) {
+          return null;
+        }
+      }
+      squiggle(g, r.x, r.x + r.width, r.y + r.height - 1);
+      return r;
+    }
+
+    private void squiggle(Graphics g, int x0, int x1, int y) {
+      g.setColor(color);
+      for (int x = x0; x < x1; x += 4) {
+        g.drawLine(x, y, x + 2, y - 2);
+        g.drawLine(x + 2, y - 2, x + 4, y);
+      }
+    }
+  }
+}